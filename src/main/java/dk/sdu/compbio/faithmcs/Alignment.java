@@ -1,11 +1,23 @@
 package dk.sdu.compbio.faithmcs;
 
+import dk.sdu.compbio.faithmcs.network.Edge;
 import dk.sdu.compbio.faithmcs.network.Node;
 import org.jgrapht.Graph;
 
 import java.util.List;
 
 public interface Alignment<T,U> {
+    // stands for the padding of a network in the label of a node of the conserved network
+    String FAKE_LABEL = "$fake$";
+
     List<List<Node>> getAlignment();
     Graph<T,U> buildNetwork(int exceptions, boolean remove_leaf_exceptions);
+
+    // the edge of network g between its nodes at positions i and j, or null if either position is padding
+    static Edge alignedEdge(List<List<Node>> alignment, List<? extends Graph<Node,Edge>> networks, int g, int i, int j) {
+        Node u = alignment.get(g).get(i);
+        Node v = alignment.get(g).get(j);
+        if(u == null || v == null) return null;
+        return networks.get(g).getEdge(u, v);
+    }
 }
@@ -0,0 +1,140 @@
+package dk.sdu.compbio.faithmcs;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+// scores alignment tables without setting up a search. every edge of every network is mapped to the key of its pair of
+// positions, in parallel over the networks, and the keys are sorted in parallel: a run of equal keys is one cell and
+// its length the number of networks conserving it. this takes O(E log E) for E edges in total instead of a scan of M^2
+// cells, and the networks are only prepared once for any number of alignments
+public class AlignmentScorer {
+    private final List<? extends Graph<Node,Edge>> networks;
+    private final boolean directed;
+    // the edges of network g as endpoint pairs edges[g][2x], edges[g][2x+1]
+    private final Node[][] edges;
+
+    public static class Score {
+        private final int n;
+        // at_least[k] is the number of cells conserved in at least k networks
+        private final int[] at_least;
+        // covered[g][k] is the number of edges of network g conserved in at least k networks
+        private final int[][] covered;
+        private final int[] sizes;
+
+        private Score(int n, int[] at_least, int[][] covered, int[] sizes) {
+            this.n = n;
+            this.at_least = at_least;
+            this.covered = covered;
+            this.sizes = sizes;
+        }
+
+        // number of edges conserved in all networks
+        public int countEdges() {
+            return at_least[n];
+        }
+
+        // number of edges conserved in at least k networks
+        public int countEdges(int k) {
+            return at_least[Math.max(1, Math.min(n, k))];
+        }
+
+        // fraction of the edges of network g which are conserved in at least k networks
+        public double coverage(int g, int k) {
+            return sizes[g] == 0 ? 0 : (double)covered[g][Math.max(1, Math.min(n, k))] / sizes[g];
+        }
+    }
+
+    public AlignmentScorer(List<? extends Graph<Node,Edge>> networks, boolean directed) {
+        this.networks = networks;
+        this.directed = directed;
+        edges = new Node[networks.size()][];
+        for(int g = 0; g < networks.size(); ++g) {
+            Node[] endpoints = new Node[2 * networks.get(g).edgeSet().size()];
+            int x = 0;
+            for(Edge e : networks.get(g).edgeSet()) {
+                endpoints[x++] = e.getSource();
+                endpoints[x++] = e.getTarget();
+            }
+            edges[g] = endpoints;
+        }
+    }
+
+    // alignment.get(g).get(p) is the node of network g at position p, or null. nodes missing from the alignment count
+    // as unaligned, so their edges are not conserved
+    public Score score(List<List<Node>> alignment) {
+        int n = networks.size();
+        long[][] keys = keys(alignment);
+        long[] all = concatenate(keys);
+
+        // distinct cells and the number of networks conserving each
+        long[] cells = new long[all.length];
+        int[] conservation = new int[all.length];
+        int distinct = 0;
+        int[] at_least = new int[n + 1];
+        for(int x = 0; x < all.length; ) {
+            int y = x;
+            while(y < all.length && all[y] == all[x]) y++;
+            cells[distinct] = all[x];
+            conservation[distinct++] = y - x;
+            for(int k = 1; k <= y - x && k <= n; ++k) at_least[k]++;
+            x = y;
+        }
+        long[] distinct_cells = Arrays.copyOf(cells, distinct);
+
+        int[][] covered = IntStream.range(0, n).parallel().mapToObj(g -> {
+            int[] count = new int[n + 1];
+            for(long key : keys[g]) {
+                int c = conservation[Arrays.binarySearch(distinct_cells, key)];
+                for(int k = 1; k <= c && k <= n; ++k) count[k]++;
+            }
+            return count;
+        }).toArray(int[][]::new);
+
+        int[] sizes = Arrays.stream(edges).mapToInt(e -> e.length / 2).toArray();
+        return new Score(n, at_least, covered, sizes);
+    }
+
+    // the keys i * M + j of the cells of all aligned edges in ascending order, M being the length of the alignment and
+    // i <= j for undirected networks. a cell conserved in c networks occurs c times
+    public long[] cells(List<List<Node>> alignment) {
+        return concatenate(keys(alignment));
+    }
+
+    // sorted cell keys of every network, edges with an unaligned endpoint left out
+    private long[][] keys(List<List<Node>> alignment) {
+        long M = alignment.stream().mapToInt(List::size).max().getAsInt();
+        return IntStream.range(0, networks.size()).parallel().mapToObj(g -> {
+            Map<Node,Integer> position = new HashMap<>();
+            List<Node> aligned = alignment.get(g);
+            for(int p = 0; p < aligned.size(); ++p) {
+                if(aligned.get(p) != null) position.put(aligned.get(p), p);
+            }
+            long[] cells = new long[edges[g].length / 2];
+            int size = 0;
+            for(int x = 0; x < edges[g].length; x += 2) {
+                Integer i = position.get(edges[g][x]);
+                Integer j = position.get(edges[g][x+1]);
+                if(i == null || j == null) continue;
+                cells[size++] = !directed && i > j ? j * M + i : i * M + j;
+            }
+            cells = Arrays.copyOf(cells, size);
+            Arrays.sort(cells);
+            return cells;
+        }).toArray(long[][]::new);
+    }
+
+    private static long[] concatenate(long[][] keys) {
+        long[] all = new long[Arrays.stream(keys).mapToInt(k -> k.length).sum()];
+        int offset = 0;
+        for(long[] k : keys) {
+            System.arraycopy(k, 0, all, offset, k.length);
+            offset += k.length;
+        }
+        Arrays.parallelSort(all);
+        return all;
+    }
+}
@@ -0,0 +1,189 @@
+package dk.sdu.compbio.faithmcs;
+
+// dense edge matrix stored as contiguous BLOCK x BLOCK tiles, so cells of nearby positions share cache lines and pages.
+// cells only ever hold values 0..n, so they are stored as unsigned bytes or shorts whenever n allows it.
+// undirected matrices only store the tiles on or above the diagonal
+public abstract class BlockedEdgeMatrix implements EdgeMatrix {
+    static final int BLOCK_SHIFT = 6;
+    static final int BLOCK = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK - 1;
+
+    protected final int n, M;
+    private final boolean directed;
+    private final int T;
+    private final CellHistogram histogram;
+
+    private BlockedEdgeMatrix(int n, int M, boolean directed) {
+        this.n = n;
+        this.M = M;
+        this.directed = directed;
+        this.T = (M + BLOCK - 1) >> BLOCK_SHIFT;
+        this.histogram = new CellHistogram(n);
+    }
+
+    public static BlockedEdgeMatrix create(int n, int M, boolean directed) {
+        long cells = cells(M, directed);
+        if(cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(String.format("Too many positions for a blocked edge matrix: %d", M));
+        }
+        if(n <= 0xFF) return new ByteCells(n, M, directed, (int)cells);
+        if(n <= 0xFFFF) return new ShortCells(n, M, directed, (int)cells);
+        return new IntCells(n, M, directed, (int)cells);
+    }
+
+    // number of bytes per cell used for n networks
+    public static int cellBytes(int n) {
+        return n <= 0xFF ? 1 : n <= 0xFFFF ? 2 : 4;
+    }
+
+    public static long cells(int M, boolean directed) {
+        long T = (M + BLOCK - 1) >> BLOCK_SHIFT;
+        long tiles = directed ? T * T : T * (T + 1) / 2;
+        return tiles * BLOCK * BLOCK;
+    }
+
+    protected final int index(int i, int j) {
+        if(!directed && i > j) {
+            int t = i;
+            i = j;
+            j = t;
+        }
+        int bi = i >> BLOCK_SHIFT;
+        int bj = j >> BLOCK_SHIFT;
+        int tile = directed ? bi * T + bj : bi * T - bi * (bi - 1) / 2 + (bj - bi);
+        return (tile << (2 * BLOCK_SHIFT)) + ((i & BLOCK_MASK) << BLOCK_SHIFT) + (j & BLOCK_MASK);
+    }
+
+    @Override
+    public int countEdges() {
+        return histogram.atLeast(n);
+    }
+
+    @Override
+    public int countEdges(int k) {
+        return histogram.atLeast(k);
+    }
+
+    @Override
+    public int size() {
+        return M;
+    }
+
+    @Override
+    public int get(int i, int j) {
+        return cell(index(i, j));
+    }
+
+    @Override
+    public void set(int i, int j, int value) {
+        int x = index(i, j);
+        histogram.update(cell(x), value);
+        setCell(x, value);
+    }
+
+    @Override
+    public boolean concurrentFill() {
+        return true;
+    }
+
+    @Override
+    public void fill(int i, int j, int value) {
+        setCell(index(i, j), value);
+    }
+
+    @Override
+    public void addCounts(int[] values) {
+        histogram.add(values);
+    }
+
+    @Override
+    public void increment(int i, int j) {
+        int x = index(i, j);
+        int value = cell(x);
+        histogram.increment(value);
+        setCell(x, value + 1);
+    }
+
+    @Override
+    public void decrement(int i, int j) {
+        int x = index(i, j);
+        int value = cell(x);
+        histogram.decrement(value);
+        setCell(x, value - 1);
+    }
+
+    protected abstract int cell(int x);
+    protected abstract void setCell(int x, int value);
+
+    private static class ByteCells extends BlockedEdgeMatrix {
+        private final byte[] cells;
+
+        ByteCells(int n, int M, boolean directed, int size) {
+            super(n, M, directed);
+            cells = new byte[size];
+        }
+
+        @Override
+        protected int cell(int x) {
+            return cells[x] & 0xFF;
+        }
+
+        @Override
+        protected void setCell(int x, int value) {
+            cells[x] = (byte)value;
+        }
+
+        @Override
+        public long heapBytes() {
+            return 1L * cells.length;
+        }
+    }
+
+    private static class ShortCells extends BlockedEdgeMatrix {
+        private final short[] cells;
+
+        ShortCells(int n, int M, boolean directed, int size) {
+            super(n, M, directed);
+            cells = new short[size];
+        }
+
+        @Override
+        protected int cell(int x) {
+            return cells[x] & 0xFFFF;
+        }
+
+        @Override
+        protected void setCell(int x, int value) {
+            cells[x] = (short)value;
+        }
+
+        @Override
+        public long heapBytes() {
+            return 2L * cells.length;
+        }
+    }
+
+    private static class IntCells extends BlockedEdgeMatrix {
+        private final int[] cells;
+
+        IntCells(int n, int M, boolean directed, int size) {
+            super(n, M, directed);
+            cells = new int[size];
+        }
+
+        @Override
+        protected int cell(int x) {
+            return cells[x];
+        }
+
+        @Override
+        protected void setCell(int x, int value) {
+            cells[x] = value;
+        }
+
+        @Override
+        public long heapBytes() {
+            return 4L * cells.length;
+        }
+    }
+}
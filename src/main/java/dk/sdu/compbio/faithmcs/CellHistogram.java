@@ -0,0 +1,43 @@
+package dk.sdu.compbio.faithmcs;
+
+// cumulative histogram of the cell values of an edge matrix: at_least[k] is the number of cells holding k or more, for
+// 1 <= k <= n. the matrices update it on every write, so counting the edges conserved in at least k networks never
+// scans the matrix. an increment or decrement touches a single entry. values above n are only counted as n
+final class CellHistogram {
+    private final int n;
+    private final int[] at_least;
+
+    CellHistogram(int n) {
+        this.n = n;
+        this.at_least = new int[n + 1];
+    }
+
+    // a cell changed from value from to value to
+    void update(int from, int to) {
+        for(int k = from + 1; k <= to && k <= n; ++k) at_least[k]++;
+        for(int k = to + 1; k <= from && k <= n; ++k) at_least[k]--;
+    }
+
+    // a cell holding value was incremented
+    void increment(int value) {
+        if(value < n) at_least[value + 1]++;
+    }
+
+    // a cell holding value was decremented
+    void decrement(int value) {
+        if(value >= 1 && value <= n) at_least[value]--;
+    }
+
+    // values[v] cells changed from 0 to v
+    void add(int[] values) {
+        int cells = 0;
+        for(int v = values.length - 1; v >= 1; --v) {
+            cells += values[v];
+            if(v <= n) at_least[v] += cells;
+        }
+    }
+
+    int atLeast(int k) {
+        return at_least[Math.max(1, Math.min(n, k))];
+    }
+}
@@ -0,0 +1,25 @@
+package dk.sdu.compbio.faithmcs;
+
+// the inner loop of the local search delta: for the neighbor positions l = pos[adj[k]], k in [from, to), it sums
+// edges.get(j, l) - edges.get(i, l), i.e. how much more conserved the neighborhood is at position j than at position i
+public interface DeltaKernel {
+    String VECTOR_KERNEL = "dk.sdu.compbio.faithmcs.VectorDeltaKernel";
+
+    int gain(int i, int j, int[] adj, int from, int to, int[] pos);
+
+    // uses the Vector API kernel when the matrix layout supports it and the JVM was started with
+    // --add-modules jdk.incubator.vector. otherwise, or when vectorize is false, falls back to the scalar kernel
+    static DeltaKernel create(EdgeMatrix edges, boolean vectorize) {
+        if(vectorize && edges instanceof UndirectedEdgeMatrix) {
+            try {
+                Class.forName("jdk.incubator.vector.IntVector");
+                return (DeltaKernel)Class.forName(VECTOR_KERNEL)
+                        .getDeclaredConstructor(UndirectedEdgeMatrix.class)
+                        .newInstance(edges);
+            } catch(ReflectiveOperationException | LinkageError e) {
+                // Vector API or the compiled kernel is not available on this JVM
+            }
+        }
+        return new ScalarDeltaKernel(edges);
+    }
+}
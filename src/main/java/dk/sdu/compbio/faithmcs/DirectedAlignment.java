@@ -26,45 +26,46 @@ public class DirectedAlignment implements Alignment<Node,Edge> {
     public DirectedNetwork buildNetwork(int exceptions, boolean remove_leaf_exceptions) {
         int M = alignment.get(0).size();
 
-        int[][] edges = new int[M][M];
-        for(DirectedNetwork network : networks) {
-            for(Edge e : network.edgeSet()) {
-                int i = e.getSource().getPosition();
-                int j = e.getTarget().getPosition();
-                edges[i][j]++;
-            }
-        }
+        // the cells are counted from the sorted keys of the aligned edges (see AlignmentScorer.cells()) rather than in an
+        // M x M matrix, so building the network scales with the number of edges. positions are taken from the table, so
+        // alignments of snapshots which were taken while the search kept moving the nodes build the right network
+        long[] cells = new AlignmentScorer(networks, true).cells(alignment);
 
+        // padding positions are null in the alignment. a position with fewer than n - exceptions real nodes cannot
+        // be the endpoint of a reported edge, so no vertex is created for it
         DirectedNetwork network = new DirectedNetwork();
-        List<Node> nodes = new ArrayList<>();
-
+        Node[] nodes = new Node[M];
         for(int i = 0; i < M; ++i) {
             int finalI = i;
+            long real = IntStream.range(0, networks.size())
+                    .filter(j -> this.alignment.get(j).get(finalI) != null)
+                    .count();
+            if(real < networks.size() - exceptions) continue;
             String label = IntStream.range(0, networks.size())
                     .mapToObj(j -> this.alignment.get(j).get(finalI))
-                    .map(Node::getLabel)
+                    .map(node -> node == null ? FAKE_LABEL : node.getLabel())
                     .collect(Collectors.joining(","));
-            boolean fake = IntStream.range(0, networks.size())
-                    .anyMatch(j -> this.alignment.get(j).get(finalI).isFake());
-            Node node = new Node(label, fake);
+            Node node = new Node(label, real < networks.size());
             node.setPosition(i);
-            nodes.add(node);
+            nodes[i] = node;
             network.addVertex(node);
         }
 
-        for(int i = 0; i < M; ++i) {
-            for(int j = 0; j < M; ++j) {
-                if(edges[i][j] >= networks.size() - exceptions) {
-                    int finalI = i;
-                    int finalJ = j;
-                    String label = IntStream.range(0, networks.size())
-                            .mapToObj(g -> networks.get(g).getEdge(this.alignment.get(g).get(finalI), this.alignment.get(g).get(finalJ)))
-                            .filter(Objects::nonNull)
-                            .map(Edge::getLabel)
-                            .collect(Collectors.joining(","));
-                    network.addEdge(nodes.get(i), nodes.get(j), new Edge(nodes.get(i), nodes.get(j), label, edges[i][j]));
-                }
-            }
+        for(int x = 0; x < cells.length; ) {
+            int y = x;
+            while(y < cells.length && cells[y] == cells[x]) y++;
+            int conservation = y - x;
+            int i = (int)(cells[x] / M);
+            int j = (int)(cells[x] % M);
+            x = y;
+            if(conservation < networks.size() - exceptions) continue;
+
+            String label = IntStream.range(0, networks.size())
+                    .mapToObj(g -> Alignment.alignedEdge(alignment, networks, g, i, j))
+                    .filter(Objects::nonNull)
+                    .map(Edge::getLabel)
+                    .collect(Collectors.joining(","));
+            network.addEdge(nodes[i], nodes[j], new Edge(nodes[i], nodes[j], label, conservation));
         }
 
         if(remove_leaf_exceptions) {
@@ -8,17 +8,20 @@ import java.util.List;
 public class DirectedEdgeMatrix implements EdgeMatrix {
     private final int n, M;
     private final int[][] edges;
+    private final CellHistogram histogram;
 
     public DirectedEdgeMatrix(int n, int M) {
         this.n = n;
         this.M = M;
         this.edges = new int[M][M];
+        this.histogram = new CellHistogram(n);
     }
 
     public DirectedEdgeMatrix(List<DirectedNetwork> networks) {
         this.n = networks.size();
         this.M = networks.stream().mapToInt(v -> v.vertexSet().size()).max().getAsInt();
         this.edges = new int[M][M];
+        this.histogram = new CellHistogram(n);
         for(DirectedNetwork network : networks) {
             for(Edge e : network.edgeSet()) {
                 int i = e.getSource().getPosition();
@@ -30,18 +33,22 @@ public class DirectedEdgeMatrix implements EdgeMatrix {
 
     @Override
     public int countEdges() {
-        int count = 0;
-        for(int i = 0; i < M; ++i) {
-            for(int j = 0; j < M; ++j) {
-                if(get(i, j) == n) count++;
-            }
-        }
-        return count;
+        return histogram.atLeast(n);
+    }
+
+    @Override
+    public int countEdges(int k) {
+        return histogram.atLeast(k);
     }
 
     @Override
     public int size() { return M; }
 
+    @Override
+    public long heapBytes() {
+        return 4L * M * M + 16L * M;
+    }
+
     @Override
     public int get(int i, int j) {
         return edges[i][j];
@@ -49,16 +56,32 @@ public class DirectedEdgeMatrix implements EdgeMatrix {
 
     @Override
     public void set(int i, int j, int value) {
+        histogram.update(edges[i][j], value);
         edges[i][j] = value;
     }
 
     @Override
     public void increment(int i, int j) {
-        edges[i][j]++;
+        histogram.increment(edges[i][j]++);
+    }
+
+    @Override
+    public boolean concurrentFill() {
+        return true;
+    }
+
+    @Override
+    public void fill(int i, int j, int value) {
+        edges[i][j] = value;
+    }
+
+    @Override
+    public void addCounts(int[] values) {
+        histogram.add(values);
     }
 
     @Override
     public void decrement(int i, int j) {
-        edges[i][j]--;
+        histogram.decrement(edges[i][j]--);
     }
 }
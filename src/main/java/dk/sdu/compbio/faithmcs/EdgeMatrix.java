@@ -1,10 +1,29 @@
 package dk.sdu.compbio.faithmcs;
 
 public interface EdgeMatrix {
+    // number of cells conserved in all networks
     int countEdges();
+    // number of cells conserved in at least k networks. both counts are maintained by the updates and take no scan
+    int countEdges(int k);
     int size();
+    // bytes of heap the cells take, 0 for off-heap storage
+    long heapBytes();
     int get(int i, int j);
     void set(int i, int j, int value);
     void increment(int i, int j);
     void decrement(int i, int j);
+
+    // bulk fill of a matrix whose cells are 0: fill() writes a cell and addCounts() then counts all filled cells at once,
+    // values[v] of them holding v. matrices with concurrentFill() take fills of distinct rows from several threads. the
+    // defaults count every cell as it is set, on a single thread
+    default boolean concurrentFill() {
+        return false;
+    }
+
+    default void fill(int i, int j, int value) {
+        set(i, j, value);
+    }
+
+    default void addCounts(int[] values) {
+    }
 }
@@ -0,0 +1,11 @@
+package dk.sdu.compbio.faithmcs;
+
+public interface EdgeMatrixFactory {
+    EdgeMatrix create(int n, int M, boolean directed);
+
+    // the factory for the engines of a part of the alignment holding total_edges edges, of which up to `engines` hold a
+    // matrix at the same time
+    default EdgeMatrixFactory split(int engines, long total_edges) {
+        return this;
+    }
+}
@@ -0,0 +1,88 @@
+package dk.sdu.compbio.faithmcs;
+
+// picks the edge matrix backend from the size of the alignment (n networks, M positions, total number of edges). the
+// backends are tried from cheapest to most expensive access and the first one whose heap footprint fits the budget wins:
+//  - dense: int cells. only worth it while the matrix is small enough to stay in cache (and the vector kernel applies)
+//  - blocked: narrow tiled cells, a quarter of dense for up to 255 networks
+//  - sparse: hash table of non-zero cells, a few probes per access but memory proportional to the edges
+//  - mapped: no heap at all, the page cache holds the cells
+public class EdgeMatrixSelector implements EdgeMatrixFactory {
+    private static final long DENSE_CACHE_LIMIT = 32L << 20;
+    // share of the max heap the matrix may take, the graphs and search state need the rest
+    private static final double HEAP_SHARE = 0.5;
+
+    private final long total_edges;
+    private final long budget;
+
+    public EdgeMatrixSelector(long total_edges, long budget) {
+        this.total_edges = total_edges;
+        this.budget = budget;
+    }
+
+    public EdgeMatrixSelector(long total_edges) {
+        this(total_edges, (long)(Runtime.getRuntime().maxMemory() * HEAP_SHARE));
+    }
+
+    // estimated heap bytes of an edge matrix of the given type, or 0 for off-heap storage
+    public static long estimateBytes(EdgeMatrixType type, int n, int M, long total_edges, boolean directed) {
+        switch(type) {
+            case DENSE:
+                return directed ? 4L * M * M + 16L * M : 4L * M * (M + 1) / 2;
+            case BLOCKED:
+                return BlockedEdgeMatrix.cellBytes(n) * BlockedEdgeMatrix.cells(M, directed);
+            case SPARSE:
+                return 12L * SparseEdgeMatrix.capacity(Math.min(total_edges, 1L << 29));
+            default:
+                return 0;
+        }
+    }
+
+    // the layout select() picks, without logging it
+    public EdgeMatrixType choose(int n, int M, boolean directed) {
+        return new Choice(n, M, directed).type;
+    }
+
+    public EdgeMatrixType select(int n, int M, boolean directed) {
+        Choice choice = new Choice(n, M, directed);
+        System.err.println(String.format("Edge matrix: %s (heap budget %dMB; estimated dense %dMB, blocked %dMB, sparse %s, mapped %dMB off-heap)",
+                choice.type.name().toLowerCase(), budget >> 20, choice.dense >> 20, choice.blocked >> 20,
+                choice.sparse == Long.MAX_VALUE ? "n/a" : (choice.sparse >> 20) + "MB", choice.mapped >> 20));
+        return choice.type;
+    }
+
+    @Override
+    public EdgeMatrix create(int n, int M, boolean directed) {
+        return create(select(n, M, directed), n, M, directed);
+    }
+
+    // the engines share the budget. the parts are many and small, so their choice is not logged
+    @Override
+    public EdgeMatrixFactory split(int engines, long part_edges) {
+        EdgeMatrixSelector part = new EdgeMatrixSelector(part_edges, budget / Math.max(1, engines));
+        return (n, M, directed) -> part.create(part.choose(n, M, directed), n, M, directed);
+    }
+
+    private EdgeMatrix create(EdgeMatrixType type, int n, int M, boolean directed) {
+        if(type == EdgeMatrixType.SPARSE) return new SparseEdgeMatrix(n, M, directed, total_edges);
+        return type.create(n, M, directed);
+    }
+
+    // the estimates of the layouts and the one they select, so what is logged is what was compared
+    private class Choice {
+        final long dense, blocked, sparse, mapped;
+        final EdgeMatrixType type;
+
+        Choice(int n, int M, boolean directed) {
+            long triangle = directed ? (long)M * M : (long)M * (M + 1) / 2;
+            dense = estimateBytes(EdgeMatrixType.DENSE, n, M, total_edges, directed);
+            blocked = estimateBytes(EdgeMatrixType.BLOCKED, n, M, total_edges, directed);
+            sparse = total_edges < 1L << 29 ? estimateBytes(EdgeMatrixType.SPARSE, n, M, total_edges, directed) : Long.MAX_VALUE;
+            mapped = BlockedEdgeMatrix.cellBytes(n) * triangle;
+
+            if(dense <= Math.min(DENSE_CACHE_LIMIT, budget) && triangle <= Integer.MAX_VALUE - 8) type = EdgeMatrixType.DENSE;
+            else if(blocked <= budget && BlockedEdgeMatrix.cells(M, directed) <= Integer.MAX_VALUE - 8) type = EdgeMatrixType.BLOCKED;
+            else if(sparse <= budget) type = EdgeMatrixType.SPARSE;
+            else type = EdgeMatrixType.MAPPED;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package dk.sdu.compbio.faithmcs;
+
+// storage layouts for the conserved edge counts
+public enum EdgeMatrixType implements EdgeMatrixFactory {
+    // int rows (directed) or a row-major int triangle (undirected)
+    DENSE,
+    // BLOCK x BLOCK tiles with byte/short cells when the number of networks allows it
+    BLOCKED,
+    // hash table of the non-zero cells
+    SPARSE,
+    // off-heap cells in a memory-mapped temporary file, with long indexing
+    MAPPED;
+
+    @Override
+    public EdgeMatrix create(int n, int M, boolean directed) {
+        switch(this) {
+            case BLOCKED:
+                return BlockedEdgeMatrix.create(n, M, directed);
+            case SPARSE:
+                return new SparseEdgeMatrix(n, M, directed);
+            case MAPPED:
+                return MappedEdgeMatrix.createTemporary(n, M, directed);
+            default:
+                return directed ? new DirectedEdgeMatrix(n, M) : new UndirectedEdgeMatrix(n, M);
+        }
+    }
+
+    public static EdgeMatrixType parse(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown edge matrix type: " + name);
+        }
+    }
+}
@@ -1,21 +1,55 @@
 package dk.sdu.compbio.faithmcs;
 
+import dk.sdu.compbio.faithmcs.alg.AlignmentSnapshot;
+import dk.sdu.compbio.faithmcs.alg.DegreeSignatureInitializer;
 import dk.sdu.compbio.faithmcs.alg.DirectedIteratedLocalSearch;
+import dk.sdu.compbio.faithmcs.alg.Initializer;
+import dk.sdu.compbio.faithmcs.alg.IslandSearch;
 import dk.sdu.compbio.faithmcs.alg.IteratedLocalSearch;
+import dk.sdu.compbio.faithmcs.alg.MultilevelSearch;
+import dk.sdu.compbio.faithmcs.alg.ParallelTempering;
+import dk.sdu.compbio.faithmcs.alg.PerturbationStrategy;
+import dk.sdu.compbio.faithmcs.alg.PartitionedSearch;
+import dk.sdu.compbio.faithmcs.alg.ProgressiveSearch;
+import dk.sdu.compbio.faithmcs.alg.QuerySearch;
+import dk.sdu.compbio.faithmcs.alg.ReferenceIndex;
+import dk.sdu.compbio.faithmcs.alg.SearchSettings;
+import dk.sdu.compbio.faithmcs.alg.SeedExtendInitializer;
 import dk.sdu.compbio.faithmcs.alg.UndirectedIteratedLocalSearch;
 import dk.sdu.compbio.faithmcs.network.DirectedNetwork;
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.LabelDictionary;
 import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
 import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.io.AlignmentReader;
+import dk.sdu.compbio.faithmcs.network.io.AlignmentWriter;
 import dk.sdu.compbio.faithmcs.network.io.ImportException;
 import dk.sdu.compbio.faithmcs.network.io.NetworkReader;
 import dk.sdu.compbio.faithmcs.network.io.NetworkWriter;
 import org.apache.commons.cli.*;
+import org.jgrapht.Graph;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -24,8 +58,23 @@ public class FaithMCS {
     private static final float DEFAULT_PERTURBATION = 0.2f;
     private static final int DEFAULT_MAX_NONIMPROVING = 20;
     private static final int DEFAULT_MAX_NUM_STEPS = 50;
+    private static final String DEFAULT_EDGE_MATRIX = "auto";
+    private static final String DEFAULT_PERTURBATION_STRATEGY = "uniform";
+    private static final String DEFAULT_INIT = "degree";
+    private static final int DEFAULT_COARSEST_SIZE = 2000;
+    private static final int DEFAULT_REFINE_PASSES = 5;
+    private static final int DEFAULT_BLOCK_SIZE = 2000;
+    private static final int DEFAULT_MIGRATION_INTERVAL = 5;
+    private static final int DEFAULT_SNAPSHOT_INTERVAL = 10;
+    private static final int DEFAULT_CACHE_SIZE = 1024;
+    private static final int DEFAULT_REPLICAS = 4;
+    private static final double DEFAULT_MIN_TEMPERATURE = 0.3;
+    private static final double DEFAULT_MAX_TEMPERATURE = 0.6;
+    private static final List<String> MODES = Arrays.asList("multilevel", "partitioned", "progressive", "reference");
+    // options which only say where things go, left out of the cache key
+    private static final List<String> UNCACHED_OPTIONS = Arrays.asList("output", "network", "snapshot", "snapshot-interval", "edge-matrix-file", "cache-dir", "cache-size");
 
-    public static void main(String[] args) throws ParseException, FileNotFoundException, ImportException {
+    public static void main(String[] args) throws ParseException, IOException, ImportException {
         Options options = new Options();
         options.addOption("h", "help", false, "Show this help text");
         options.addOption("d", "directed", false, "Treat networks as directed.");
@@ -33,16 +82,45 @@ public class FaithMCS {
         options.addOption("s", "max-num-steps", true, String.format("Stop algorithm after this number of iterations. Default: %d.", DEFAULT_MAX_NUM_STEPS));
         options.addOption("r", "random-seed", true, String.format("Random seed. Default: %d", -1));
         options.addOption("p", "perturbation", true, String.format("Ratio of node to swap during perturbation. Default: %f.", DEFAULT_PERTURBATION));
-        options.addOption("e", "exceptions", true, String.format("Number of exceptions allowed per edge in solution. Default: %d.", DEFAULT_EXCEPTIONS));
+        options.addOption(null, "adaptive-perturbation", false, "Adapt the perturbation ratio after every step to the rate of improvement, starting from --perturbation.");
+        options.addOption(null, "perturbation-strategy", true, String.format("How perturbation picks positions: uniform, or targeted (biased towards nodes with unconserved edges). Default: %s.", DEFAULT_PERTURBATION_STRATEGY));
+        options.addOption(null, "init", true, String.format("Initial alignment: degree (nodes of equal degree rank), signature (degree and neighbor degree histogram) or seed-extend (greedy matching grown from the highest degree nodes). Default: %s.", DEFAULT_INIT));
+        options.addOption("e", "exceptions", true, String.format("Number of exceptions allowed per edge in solution. The search maximises the number of edges conserved in all but this many networks. Default: %d.", DEFAULT_EXCEPTIONS));
         options.addOption(null, "remove-exception-leaves", false, "Remove leaf connected by an exception edge from solution.");
+        options.addOption(null, "memory-budget", true, "Heap the run may use, in bytes with an optional k, m or g suffix. The footprint of every structure is estimated once the networks are loaded: -m auto picks an edge matrix layout which fits, and a run which does not fit fails before the search starts. Default: the max heap.");
+        options.addOption("m", "edge-matrix", true, String.format("Edge matrix layout: dense, blocked (tiled, narrow cells), sparse, mapped (off-heap, memory-mapped file) or auto (chosen from network sizes and heap). Default: %s.", DEFAULT_EDGE_MATRIX));
+        options.addOption(null, "edge-matrix-file", true, "Back the mapped edge matrix by this file instead of a temporary file.");
+        options.addOption(null, "no-vector", false, "Do not use the Vector API delta kernel, even if the JVM was started with --add-modules jdk.incubator.vector.");
+        options.addOption(null, "concurrent-networks", false, "Run the local search of every network on its own thread. Swaps are validated against the shared edge matrix before they are made, so runs are not reproducible with a fixed --random-seed unless --deterministic is given.");
+        options.addOption(null, "deterministic", false, "Make --concurrent-networks reproducible, requires it: the networks search for the best position of one node at a time in parallel and the swaps are made in network order, so a seeded run gives the same alignment on any number of threads.");
+        options.addOption(null, "tempering", false, "Replace the iterated local search by parallel tempering: --replicas searches at temperatures from --min-temperature to --max-temperature make metropolis moves in parallel and exchange temperatures after every round. --max-num-steps and --max-nonimproving count rounds.");
+        options.addOption(null, "replicas", true, String.format("Number of replicas of parallel tempering, each with an edge matrix of its own. Default: %d.", DEFAULT_REPLICAS));
+        options.addOption(null, "min-temperature", true, String.format("Temperature of the coldest replica, in units of the sum of squares objective. Default: %s.", DEFAULT_MIN_TEMPERATURE));
+        options.addOption(null, "max-temperature", true, String.format("Temperature of the hottest replica. Default: %s.", DEFAULT_MAX_TEMPERATURE));
+        options.addOption(null, "multilevel", false, "Align coarsened networks first and refine the alignment level by level (undirected only).");
+        options.addOption(null, "coarsest-size", true, String.format("Coarsen until the largest network has at most this many nodes. Default: %d.", DEFAULT_COARSEST_SIZE));
+        options.addOption(null, "refine-passes", true, String.format("Local search passes of the final refinement of the multilevel and partitioned modes (per level for multilevel). Default: %d.", DEFAULT_REFINE_PASSES));
+        options.addOption(null, "partitioned", false, "Split the networks into community blocks, align matched blocks in parallel and repair the block boundaries (undirected only).");
+        options.addOption(null, "block-size", true, String.format("Maximum number of nodes per block when partitioning. Default: %d.", DEFAULT_BLOCK_SIZE));
+        options.addOption(null, "threads", true, "Number of blocks, subtrees or queries aligned concurrently in the partitioned, progressive and reference modes. Default: number of processors.");
+        options.addOption(null, "progressive", false, "Align the networks pairwise along a guide tree of similar networks, merging subtrees in parallel, and continue with a joint search from the result (undirected only).");
+        options.addOption(null, "reference", true, "Align every network given on its own against this reference network, which is loaded and indexed once. The search state of a query is the size of the query, and --threads queries are aligned concurrently (undirected only). -o and -n name directories, which get a <query>.tsv and <query>.sif per query.");
+        options.addOption(null, "island-dir", true, "Run as one island of an island model: exchange best alignments with the other processes using this shared directory.");
+        options.addOption(null, "island-name", true, "Name of this island in the shared directory. Default: pid@hostname.");
+        options.addOption(null, "migration-interval", true, String.format("Number of steps between migrations of the island model. Default: %d.", DEFAULT_MIGRATION_INTERVAL));
+        options.addOption(null, "snapshot", true, "While the search runs, write the best alignment table so far to this file from a background thread, without pausing the search.");
+        options.addOption(null, "snapshot-interval", true, String.format("Seconds between checks for a better alignment to write to --snapshot. Default: %d.", DEFAULT_SNAPSHOT_INTERVAL));
+        options.addOption(null, "score", true, "Do not align. Score this alignment table (or every file in this directory) against the networks and print the number of conserved edges, the edges conserved in at least k networks for every k and the fraction of the edges of each network conserved in all but --exceptions networks. May be given several times.");
+        options.addOption(null, "cache-dir", true, "Cache the alignment table and conserved network of seeded runs in this directory, keyed by the contents of the networks and all other options, and return the cached outputs when the same run is repeated.");
+        options.addOption(null, "cache-size", true, String.format("Size of the cache in MB. Least recently used entries are deleted beyond it. Default: %d.", DEFAULT_CACHE_SIZE));
         options.addOption("o", "output", true, "Output alignment table to file.");
-        options.addOption("n", "network", true, "Output conserved subgraph to file.");
+        options.addOption("n", "network", true, "Output conserved subgraph to file: .sif for a text edge list, .bin for a binary edge list (see BinaryEdgeListExporter).");
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
         HelpFormatter help_formatter = new HelpFormatter();
 
-        if (cmd.getArgList().size() < 2) {
+        if (cmd.getArgList().size() < (cmd.hasOption("reference") ? 1 : 2)) {
             System.err.println("error: Needs at least two networks for alignment.");
             help_formatter.printHelp("FaithMCS [OPTIONS] network1 network2 [network3 ...]", options);
             System.exit(1);
@@ -57,21 +135,104 @@ public class FaithMCS {
         int max_num_steps = Integer.parseInt(cmd.getOptionValue("max-num-steps", Integer.toString(DEFAULT_MAX_NUM_STEPS)));
         float perturbation = Float.parseFloat(cmd.getOptionValue("perturbation", Float.toString(DEFAULT_PERTURBATION)));
         int random_seed = Integer.parseInt(cmd.getOptionValue("random-seed", Integer.toString(-1)));
+        String matrix_type = cmd.getOptionValue("edge-matrix", DEFAULT_EDGE_MATRIX);
+        SearchSettings settings = new SearchSettings(
+                Integer.parseInt(cmd.getOptionValue("exceptions", Integer.toString(DEFAULT_EXCEPTIONS))),
+                initializer(cmd.getOptionValue("init", DEFAULT_INIT)),
+                PerturbationStrategy.parse(cmd.getOptionValue("perturbation-strategy", DEFAULT_PERTURBATION_STRATEGY)),
+                cmd.hasOption("adaptive-perturbation") ? perturbation : -1,
+                cmd.hasOption("concurrent-networks"), cmd.hasOption("deterministic"));
 
-        IteratedLocalSearch aligner;
+        Alignment alignment;
 
         boolean directed = cmd.hasOption("directed");
+        // the alignment modes replace the iterated local search, so they exclude each other and the island model. they are
+        // only implemented for undirected networks
+        List<String> modes = MODES.stream().filter(cmd::hasOption).collect(Collectors.toList());
+        if(!modes.isEmpty() && cmd.hasOption("island-dir")) modes.add("island-dir");
+        if(modes.size() > 1) {
+            System.err.println(String.format("error: --%s cannot be combined.", String.join(" and --", modes)));
+            System.exit(1);
+        }
+        if(cmd.hasOption("deterministic") && !cmd.hasOption("concurrent-networks")) {
+            System.err.println("error: --deterministic only applies to --concurrent-networks, a search without it is reproducible already.");
+            System.exit(1);
+        }
+        if(cmd.hasOption("tempering") && (!modes.isEmpty() || cmd.hasOption("island-dir") || cmd.hasOption("edge-matrix-file"))) {
+            System.err.println("error: --tempering cannot be combined with the other alignment modes, --island-dir or --edge-matrix-file.");
+            System.exit(1);
+        }
+        if((cmd.hasOption("partitioned") || cmd.hasOption("progressive")) && cmd.hasOption("edge-matrix-file")) {
+            System.err.println(String.format("error: --%s aligns concurrently, the searches cannot share one --edge-matrix-file.", modes.get(0)));
+            System.exit(1);
+        }
+        if(cmd.hasOption("progressive") && settings.getExceptions() > 0) {
+            System.err.println("error: --progressive merges pairs of consensus networks and cannot allow --exceptions.");
+            System.exit(1);
+        }
+        if(directed && !modes.isEmpty()) {
+            System.err.println(String.format("error: --%s is only supported for undirected networks.", modes.get(0)));
+            System.exit(1);
+        }
+
+        // a run is only cached when its result is reproducible: seeded, and not exchanging alignments with other islands
+        ResultCache cache = null;
+        String cache_key = null;
+        File output = cmd.hasOption("output") ? new File(cmd.getOptionValue("output")) : null;
+        File network_output = cmd.hasOption("network") ? new File(cmd.getOptionValue("network")) : null;
+        if(cmd.hasOption("cache-dir") && !cmd.hasOption("score")) {
+            if(cmd.hasOption("reference")) {
+                System.err.println("Not caching: --reference writes one output per query");
+            } else if(random_seed == -1 || cmd.hasOption("island-dir") || cmd.hasOption("concurrent-networks") && !cmd.hasOption("deterministic")) {
+                System.err.println("Not caching: the result of a run without --random-seed, with --island-dir or with --concurrent-networks but not --deterministic is not reproducible");
+            } else {
+                long start = System.currentTimeMillis();
+                long cache_size = Long.parseLong(cmd.getOptionValue("cache-size", Integer.toString(DEFAULT_CACHE_SIZE)));
+                cache = new ResultCache(new File(cmd.getOptionValue("cache-dir")), cache_size << 20);
+                List<String> parameters = new ArrayList<>();
+                for(Option option : cmd.getOptions()) {
+                    String name = option.getLongOpt() != null ? option.getLongOpt() : option.getOpt();
+                    if(UNCACHED_OPTIONS.contains(name)) continue;
+                    parameters.add(name + "=" + String.join(",", option.getValuesList()));
+                }
+                cache_key = ResultCache.key(cmd.getArgList().stream().map(File::new).collect(Collectors.toList()), directed, parameters);
+                if(cache.get(cache_key, output, network_output)) {
+                    System.err.println(String.format("Cache hit %s, copied the cached outputs in %dms", cache_key, System.currentTimeMillis() - start));
+                    return;
+                }
+                System.err.println(String.format("Cache miss %s (%dms)", cache_key, System.currentTimeMillis() - start));
+            }
+        }
+
+        // the time from the loaded networks to the final alignment, reported apart from the export
+        long search_start;
+        MemoryPlan plan;
+        // sizes of the structures the search engines allocated, see MemoryPlan.report()
+        Map<String,Long> memory_used = new HashMap<>();
+        if(cmd.hasOption("reference")) {
+            alignQueries(cmd, perturbation, random_seed, max_nonimproving, max_num_steps);
+            return;
+        }
+        LabelDictionary dictionary = new LabelDictionary();
         if(directed) {
             System.err.println("Treating networks as directed");
             List<DirectedNetwork> networks = new ArrayList<>();
             for(String path : cmd.getArgList()) {
                 DirectedNetwork network = new DirectedNetwork();
-                NetworkReader.read(network, new File(path));
+                NetworkReader.read(network, new File(path), dictionary);
                 networks.add(network);
                 System.err.println(String.format("Read network file: %s. Nodes: %d. Edges: %d.", path, network.vertexSet().size(), network.edgeSet().size()));
             }
+            checkExceptions(settings.getExceptions(), networks.size());
+            if(cmd.hasOption("score")) {
+                score(cmd, networks, directed);
+                return;
+            }
+            plan = memoryPlan(cmd, networks, directed);
+            search_start = System.currentTimeMillis();
 
-            aligner = new DirectedIteratedLocalSearch(networks, perturbation);
+            EdgeMatrixFactory matrix_factory = edgeMatrixFactory(cmd, matrix_type, networks, directed, plan);
+            alignment = align(cmd, seed -> new DirectedIteratedLocalSearch(networks, perturbation, seed, matrix_factory), settings, random_seed, networks, max_nonimproving, max_num_steps, memory_used);
         }
         // undirected
         else {
@@ -79,44 +240,370 @@ public class FaithMCS {
             List<UndirectedNetwork> networks = new ArrayList<>();
             for(String path : cmd.getArgList()) {
                 UndirectedNetwork network = new UndirectedNetwork();
-                NetworkReader.read(network, new File(path));
+                NetworkReader.read(network, new File(path), dictionary);
                 networks.add(network);
                 System.err.println(String.format("Read network file: %s. Nodes: %d. Edges: %d.", path, network.vertexSet().size(), network.edgeSet().size()));
             }
+            checkExceptions(settings.getExceptions(), networks.size());
+            if(cmd.hasOption("score")) {
+                score(cmd, networks, directed);
+                return;
+            }
+            plan = memoryPlan(cmd, networks, directed);
+            search_start = System.currentTimeMillis();
 
-            aligner = new UndirectedIteratedLocalSearch(networks, perturbation, random_seed);
+            EdgeMatrixFactory matrix_factory = edgeMatrixFactory(cmd, matrix_type, networks, directed, plan);
+            boolean vectorize = !cmd.hasOption("no-vector");
+            if(cmd.hasOption("multilevel")) {
+                int coarsest_size = Integer.parseInt(cmd.getOptionValue("coarsest-size", Integer.toString(DEFAULT_COARSEST_SIZE)));
+                int refine_passes = Integer.parseInt(cmd.getOptionValue("refine-passes", Integer.toString(DEFAULT_REFINE_PASSES)));
+                MultilevelSearch search = new MultilevelSearch(networks, perturbation, random_seed, matrix_factory, vectorize, settings, coarsest_size, refine_passes);
+                alignment = search.run(max_nonimproving, max_num_steps);
+                memory_used.putAll(search.getMemoryUsage());
+            } else if(cmd.hasOption("progressive")) {
+                int threads = Integer.parseInt(cmd.getOptionValue("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+                ProgressiveSearch search = new ProgressiveSearch(networks, perturbation, random_seed, matrix_factory, vectorize, settings, threads);
+                alignment = search.run(max_nonimproving, max_num_steps);
+                memory_used.putAll(search.getMemoryUsage());
+            } else if(cmd.hasOption("partitioned")) {
+                int block_size = Integer.parseInt(cmd.getOptionValue("block-size", Integer.toString(DEFAULT_BLOCK_SIZE)));
+                int refine_passes = Integer.parseInt(cmd.getOptionValue("refine-passes", Integer.toString(DEFAULT_REFINE_PASSES)));
+                int threads = Integer.parseInt(cmd.getOptionValue("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+                PartitionedSearch search = new PartitionedSearch(networks, perturbation, random_seed, matrix_factory, vectorize, settings, block_size, refine_passes, threads);
+                alignment = search.run(max_nonimproving, max_num_steps);
+                memory_used.putAll(search.getMemoryUsage());
+            } else {
+                alignment = align(cmd, seed -> new UndirectedIteratedLocalSearch(networks, perturbation, seed, matrix_factory, vectorize), settings, random_seed, networks, max_nonimproving, max_num_steps, memory_used);
+            }
         }
 
-        System.out.println("before aligner.run");
-        aligner.run(max_nonimproving, max_num_steps);
-        System.out.println("after aligner.run");
-        Alignment alignment = aligner.getAlignment();
+        System.err.println(String.format("Search took %dms", System.currentTimeMillis() - search_start));
 
-        if (cmd.hasOption("output")) {
-            writeAlignment(alignment, new File(cmd.getOptionValue("output")));
+        if (output != null) {
+            long start = System.currentTimeMillis();
+            writeAlignment(alignment, output);
+            System.err.println(String.format("Wrote alignment table to %s in %dms", output, System.currentTimeMillis() - start));
         }
 
         if (cmd.hasOption("network")) {
             int exceptions = Integer.parseInt(cmd.getOptionValue("exceptions", Integer.toString(DEFAULT_EXCEPTIONS)));
             boolean remove_exception_leaves = cmd.hasOption("remove-exception-leaves");
-            NetworkWriter.write(alignment.buildNetwork(exceptions, remove_exception_leaves), new File(cmd.getOptionValue("network")));
+            long start = System.currentTimeMillis();
+            Graph<Node,Edge> network = alignment.buildNetwork(exceptions, remove_exception_leaves);
+            long built = System.currentTimeMillis();
+            NetworkWriter.write(network, network_output);
+            System.err.println(String.format("Built conserved network (%d edges) in %dms, wrote it to %s in %dms", network.edgeSet().size(), built - start, network_output, System.currentTimeMillis() - built));
+        }
+
+        if (cache != null) {
+            long start = System.currentTimeMillis();
+            // the table is always cached, so a later run asking for it hits whether or not this one wrote it
+            File table = output;
+            if(table == null) {
+                table = File.createTempFile("faithmcs", ".tsv");
+                writeAlignment(alignment, table);
+            }
+            try {
+                cache.put(cache_key, table, network_output);
+            } finally {
+                if(output == null) table.delete();
+            }
+            System.err.println(String.format("Cached the outputs as %s in %dms", cache_key, System.currentTimeMillis() - start));
+        }
+
+        plan.report(memory_used);
+    }
+
+    private static Alignment align(CommandLine cmd, LongFunction<IteratedLocalSearch> searches, SearchSettings settings, long random_seed, List<? extends Graph<Node,Edge>> networks, int max_nonimproving, int max_num_steps, Map<String,Long> memory_used) {
+        System.out.println("before aligner.run");
+        IteratedLocalSearch aligner = searches.apply(random_seed);
+        settings.configure(aligner);
+        long start = System.currentTimeMillis();
+        List<List<Node>> initial = settings.initialize(aligner, networks);
+        System.err.println(String.format("Initial alignment: %d edges (%s, %dms)", aligner.getBestNumberOfEdges(), cmd.getOptionValue("init", DEFAULT_INIT), System.currentTimeMillis() - start));
+        if(cmd.hasOption("tempering")) {
+            return temper(cmd, aligner, searches, settings, random_seed, networks, initial, max_nonimproving, max_num_steps, memory_used);
+        }
+        ScheduledExecutorService exporter = null;
+        AtomicReference<AlignmentSnapshot> exported = new AtomicReference<>();
+        if(cmd.hasOption("snapshot")) {
+            exporter = snapshotExporter(cmd, aligner::getSnapshot, exported);
+        }
+        if(cmd.hasOption("island-dir")) {
+            Path directory = Paths.get(cmd.getOptionValue("island-dir"));
+            String name = cmd.getOptionValue("island-name", ManagementFactory.getRuntimeMXBean().getName());
+            int migration_interval = Integer.parseInt(cmd.getOptionValue("migration-interval", Integer.toString(DEFAULT_MIGRATION_INTERVAL)));
+            new IslandSearch(aligner, networks, directory, name, migration_interval).run(max_nonimproving, max_num_steps);
+        } else {
+            aligner.run(max_nonimproving, max_num_steps);
+        }
+        if(exporter != null) {
+            stopSnapshotExporter(cmd, exporter, aligner::getSnapshot, exported);
+        }
+        System.out.println("after aligner.run");
+        aligner.getMemoryUsage().forEach((structure, bytes) -> memory_used.merge(structure, bytes, Long::sum));
+        return aligner.getAlignment();
+    }
+
+    // aligns the networks given against the reference, each query in a task of its own. the outputs of query q go to
+    // the -o and -n directories, named like the query file without its extension
+    private static void alignQueries(CommandLine cmd, float perturbation, long random_seed, int max_nonimproving, int max_num_steps) throws IOException, ImportException {
+        long start = System.currentTimeMillis();
+        UndirectedNetwork reference = new UndirectedNetwork();
+        NetworkReader.read(reference, new File(cmd.getOptionValue("reference")));
+        ReferenceIndex index = new ReferenceIndex(reference);
+        System.err.println(String.format("Read and indexed reference %s. Nodes: %d. Edges: %d. (%dms)", cmd.getOptionValue("reference"), reference.vertexSet().size(), reference.edgeSet().size(), System.currentTimeMillis() - start));
+
+        File output = cmd.hasOption("output") ? new File(cmd.getOptionValue("output")) : null;
+        File network_output = cmd.hasOption("network") ? new File(cmd.getOptionValue("network")) : null;
+        if(output != null) Files.createDirectories(output.toPath());
+        if(network_output != null) Files.createDirectories(network_output.toPath());
+        int exceptions = Integer.parseInt(cmd.getOptionValue("exceptions", Integer.toString(DEFAULT_EXCEPTIONS)));
+        // every query is aligned to the reference alone
+        checkExceptions(exceptions, 2);
+        boolean remove_exception_leaves = cmd.hasOption("remove-exception-leaves");
+        int threads = Integer.parseInt(cmd.getOptionValue("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+        start = System.currentTimeMillis();
+        List<String> queries = cmd.getArgList();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int q = 0; q < queries.size(); ++q) {
+            String path = queries.get(q);
+            long seed = random_seed == -1 ? -1 : random_seed + q;
+            futures.add(pool.submit(() -> {
+                long query_start = System.currentTimeMillis();
+                UndirectedNetwork query = new UndirectedNetwork();
+                // every query has its own labels, freed with the query
+                NetworkReader.read(query, new File(path));
+                QuerySearch search = new QuerySearch(index, query, perturbation, seed);
+                search.run(max_nonimproving, max_num_steps);
+                QueryAlignment alignment = search.getAlignment();
+                String name = new File(path).getName().replaceFirst("\\.[^.]*$", "");
+                if(output != null) writeAlignment(alignment, new File(output, name + ".tsv"));
+                if(network_output != null) NetworkWriter.write(alignment.buildNetwork(exceptions, remove_exception_leaves), new File(network_output, name + ".sif"));
+                System.err.println(String.format("Aligned query %s. Nodes: %d. Edges: %d. Conserved edges: %d. (%dms)", path, query.vertexSet().size(), query.edgeSet().size(), search.getBestNumberOfEdges(), System.currentTimeMillis() - query_start));
+                return null;
+            }));
+        }
+        try {
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while aligning queries", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof ImportException) throw (ImportException)e.getCause();
+            if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new IllegalStateException("Query alignment failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        System.err.println(String.format("Aligned %d queries in %dms", queries.size(), System.currentTimeMillis() - start));
+    }
+
+    // parallel tempering, with aligner as the first replica and the others started from the same initial alignment. a
+    // round is one sweep: every replica moves each node of the networks but the first once on average
+    private static Alignment temper(CommandLine cmd, IteratedLocalSearch aligner, LongFunction<IteratedLocalSearch> searches, SearchSettings settings, long random_seed, List<? extends Graph<Node,Edge>> networks, List<List<Node>> initial, int max_nonimproving, int max_num_steps, Map<String,Long> memory_used) {
+        int num_replicas = Integer.parseInt(cmd.getOptionValue("replicas", Integer.toString(DEFAULT_REPLICAS)));
+        double min_temperature = Double.parseDouble(cmd.getOptionValue("min-temperature", Double.toString(DEFAULT_MIN_TEMPERATURE)));
+        double max_temperature = Double.parseDouble(cmd.getOptionValue("max-temperature", Double.toString(DEFAULT_MAX_TEMPERATURE)));
+        List<IteratedLocalSearch> replicas = new ArrayList<>();
+        replicas.add(aligner);
+        for(int r = 1; r < num_replicas; ++r) {
+            IteratedLocalSearch replica = searches.apply(random_seed == -1 ? -1 : random_seed + r);
+            settings.configure(replica);
+            if(initial != null) replica.setAlignment(initial);
+            replicas.add(replica);
+        }
+        int moves = networks.stream().skip(1).mapToInt(g -> g.vertexSet().size()).sum();
+        ParallelTempering tempering = new ParallelTempering(replicas, min_temperature, max_temperature, moves, random_seed);
+
+        ScheduledExecutorService exporter = null;
+        AtomicReference<AlignmentSnapshot> exported = new AtomicReference<>();
+        if(cmd.hasOption("snapshot")) {
+            exporter = snapshotExporter(cmd, tempering::getSnapshot, exported);
+        }
+        tempering.run(max_nonimproving, max_num_steps);
+        if(exporter != null) {
+            stopSnapshotExporter(cmd, exporter, tempering::getSnapshot, exported);
+        }
+        for(IteratedLocalSearch replica : replicas) {
+            replica.getMemoryUsage().forEach((structure, bytes) -> memory_used.merge(structure, bytes, Long::sum));
+        }
+        return tempering.getAlignment();
+    }
+
+    // scores the tables in the order given, files of a directory by name. one tab separated line per table goes to
+    // stdout, after a header line
+    private static void score(CommandLine cmd, List<? extends Graph<Node,Edge>> networks, boolean directed) throws IOException, ImportException {
+        int n = networks.size();
+        int threshold = n - Integer.parseInt(cmd.getOptionValue("exceptions", Integer.toString(DEFAULT_EXCEPTIONS)));
+        List<File> tables = new ArrayList<>();
+        for(String path : cmd.getOptionValues("score")) {
+            File file = new File(path);
+            if(file.isDirectory()) {
+                File[] files = file.listFiles(File::isFile);
+                Arrays.sort(files);
+                tables.addAll(Arrays.asList(files));
+            } else {
+                tables.add(file);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        AlignmentScorer scorer = new AlignmentScorer(networks, directed);
+        List<String> header = new ArrayList<>(Arrays.asList("table", "edges"));
+        IntStream.rangeClosed(1, n).forEach(k -> header.add("at_least_" + k));
+        IntStream.rangeClosed(1, n).forEach(g -> header.add("coverage_" + g));
+        System.out.println(String.join("\t", header));
+        for(File table : tables) {
+            AlignmentScorer.Score score = scorer.score(AlignmentReader.read(networks, table));
+            List<String> row = new ArrayList<>(Arrays.asList(table.getPath(), Integer.toString(score.countEdges(threshold))));
+            IntStream.rangeClosed(1, n).forEach(k -> row.add(Integer.toString(score.countEdges(k))));
+            IntStream.range(0, n).forEach(g -> row.add(String.format("%.4f", score.coverage(g, threshold))));
+            System.out.println(String.join("\t", row));
+        }
+        System.err.println(String.format("Scored %d alignments in %dms", tables.size(), System.currentTimeMillis() - start));
+    }
+
+    // null for degree order, which the search starts from anyway
+    private static Initializer initializer(String name) {
+        switch(name.toLowerCase()) {
+            case "degree":
+                return null;
+            case "signature":
+                return new DegreeSignatureInitializer();
+            case "seed-extend":
+                return new SeedExtendInitializer();
+            default:
+                throw new IllegalArgumentException("Unknown initializer: " + name);
+        }
+    }
+
+    // an edge must be conserved in at least one network
+    private static void checkExceptions(int exceptions, int n) {
+        if(exceptions < 0 || exceptions >= n) {
+            System.err.println(String.format("error: --exceptions must be between 0 and %d for %d networks: %d", n - 1, n, exceptions));
+            System.exit(1);
+        }
+    }
+
+    // the budget is --memory-budget or the max heap, whichever is smaller, and there are as many engines as replicas
+    private static MemoryPlan memoryPlan(CommandLine cmd, List<? extends Graph<Node,Edge>> networks, boolean directed) {
+        long max_heap = Runtime.getRuntime().maxMemory();
+        long budget = max_heap;
+        if(cmd.hasOption("memory-budget")) {
+            budget = MemoryPlan.parseSize(cmd.getOptionValue("memory-budget"));
+            if(budget > max_heap) {
+                System.err.println(String.format("warning: the memory budget of %dMB is larger than the max heap of %dMB, planning for the max heap", budget >> 20, max_heap >> 20));
+                budget = max_heap;
+            }
+        }
+        int replicas = cmd.hasOption("tempering") ? Integer.parseInt(cmd.getOptionValue("replicas", Integer.toString(DEFAULT_REPLICAS))) : 1;
+        int exceptions = Integer.parseInt(cmd.getOptionValue("exceptions", Integer.toString(DEFAULT_EXCEPTIONS)));
+        return new MemoryPlan(networks, directed, budget, replicas, cmd.hasOption("network"), exceptions);
+    }
+
+    // the edge matrix goes into the plan, auto picks the fastest layout within what the rest of the plan leaves. a run
+    // which does not fit the budget stops here
+    private static EdgeMatrixFactory edgeMatrixFactory(CommandLine cmd, String type, List<? extends Graph<Node,Edge>> networks, boolean directed, MemoryPlan plan) {
+        int n = networks.size();
+        int M = networks.stream().mapToInt(g -> g.vertexSet().size()).max().getAsInt();
+        long total_edges = networks.stream().mapToLong(g -> g.edgeSet().size()).sum();
+        EdgeMatrixFactory factory;
+        EdgeMatrixType layout;
+        if(cmd.hasOption("edge-matrix-file")) {
+            File file = new File(cmd.getOptionValue("edge-matrix-file"));
+            factory = (g, m, d) -> MappedEdgeMatrix.create(file, g, m, d);
+            layout = EdgeMatrixType.MAPPED;
+        } else if(type.equalsIgnoreCase("auto")) {
+            EdgeMatrixSelector selector = new EdgeMatrixSelector(total_edges, Math.max(0, plan.matrixBudget()));
+            factory = selector;
+            layout = selector.choose(n, M, directed);
+        } else {
+            layout = EdgeMatrixType.parse(type);
+            factory = layout;
+        }
+        long bytes = EdgeMatrixSelector.estimateBytes(layout, n, M, total_edges, directed);
+
+        // the blocks of --partitioned and the merges of --progressive have matrices of their own, of which several are
+        // alive at once. an explicit layout keeps its size per engine, auto splits the budget between them
+        if(cmd.hasOption("partitioned") || cmd.hasOption("progressive")) {
+            int threads = Integer.parseInt(cmd.getOptionValue("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+            int engines, part_n, part_M;
+            long part_edges;
+            if(cmd.hasOption("partitioned")) {
+                int block_size = Integer.parseInt(cmd.getOptionValue("block-size", Integer.toString(DEFAULT_BLOCK_SIZE)));
+                int blocks = Math.max(1, (M + block_size - 1) / block_size);
+                engines = Math.min(threads, blocks);
+                part_n = n;
+                part_M = (M + blocks - 1) / blocks;
+                part_edges = total_edges / blocks;
+            } else {
+                engines = Math.max(1, Math.min(threads, n / 2));
+                part_n = 2;
+                part_M = M;
+                part_edges = 2 * networks.stream().mapToLong(g -> g.edgeSet().size()).max().getAsLong();
+            }
+            EdgeMatrixType part_layout = type.equalsIgnoreCase("auto")
+                    ? new EdgeMatrixSelector(part_edges, Math.max(0, plan.matrixBudget()) / engines).choose(part_n, part_M, directed)
+                    : layout;
+            bytes = Math.max(bytes, engines * EdgeMatrixSelector.estimateBytes(part_layout, part_n, part_M, part_edges, directed));
+        }
+        plan.setEdgeMatrix(bytes);
+        plan.print();
+        if(!plan.fits()) {
+            System.err.println(String.format("error: the run needs an estimated %dMB, more than the memory budget of %dMB.%s", plan.total() >> 20, plan.getBudget() >> 20,
+                    layout == EdgeMatrixType.MAPPED ? "" : " -m auto picks an edge matrix layout which fits, down to the off-heap mapped one."));
+            System.exit(1);
+        }
+        return factory;
+    }
+
+    // writes the snapshots to --snapshot from a daemon thread every --snapshot-interval seconds
+    private static ScheduledExecutorService snapshotExporter(CommandLine cmd, Supplier<AlignmentSnapshot> snapshots, AtomicReference<AlignmentSnapshot> exported) {
+        File file = new File(cmd.getOptionValue("snapshot"));
+        int interval = Integer.parseInt(cmd.getOptionValue("snapshot-interval", Integer.toString(DEFAULT_SNAPSHOT_INTERVAL)));
+        ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleWithFixedDelay(() -> exportSnapshot(snapshots.get(), exported, file), interval, interval, TimeUnit.SECONDS);
+        return exporter;
+    }
+
+    // waits for a running export and writes the final snapshot
+    private static void stopSnapshotExporter(CommandLine cmd, ScheduledExecutorService exporter, Supplier<AlignmentSnapshot> snapshots, AtomicReference<AlignmentSnapshot> exported) {
+        exporter.shutdown();
+        try {
+            exporter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exportSnapshot(snapshots.get(), exported, new File(cmd.getOptionValue("snapshot")));
+    }
+
+    // writes snapshot unless it was the last one exported. the table is written to a temporary file and moved over file,
+    // so readers never see half a table
+    private static void exportSnapshot(AlignmentSnapshot snapshot, AtomicReference<AlignmentSnapshot> exported, File file) {
+        if(snapshot == exported.get()) return;
+        long start = System.currentTimeMillis();
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".tmp");
+        try {
+            writeAlignment(snapshot.getAlignment(), tmp);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            System.err.println(String.format("error: could not write snapshot to %s: %s", file, e.getMessage()));
+            return;
         }
+        exported.set(snapshot);
+        System.err.println(String.format("snapshot: step %d, %d edges written to %s (%dms)", snapshot.getStep(), snapshot.getNumberOfEdges(), file, System.currentTimeMillis() - start));
     }
 
-    private static void writeAlignment(Alignment alignment, File file) throws FileNotFoundException {
-        PrintWriter pw = new PrintWriter(file);
-        List<List<Node>> align = alignment.getAlignment();
-        int n = align.size();
-        int M = align.get(0).size();
-
-        for (int j = 0; j < M; ++j) {
-            int finalJ = j;
-            pw.println(align.stream().map(nodes -> nodes.get(finalJ))
-                    .filter(node -> !node.isFake())
-                    .map(Node::toString)
-                    .collect(Collectors.joining("\t"))
-            );
-        }
-        pw.close();
+    private static void writeAlignment(Alignment alignment, File file) throws IOException {
+        AlignmentWriter.write(alignment.getAlignment(), file);
     }
 }
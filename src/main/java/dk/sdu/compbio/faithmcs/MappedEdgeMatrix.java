@@ -0,0 +1,158 @@
+package dk.sdu.compbio.faithmcs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// edge matrix in a memory-mapped file, so the OS page cache rather than the Java heap holds the counts. cells are
+// addressed with long indices and stored as unsigned bytes/shorts when the number of networks allows it. the file holds
+// the cells only, it lives as long as the search which fills it
+public class MappedEdgeMatrix implements EdgeMatrix {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final int n, M;
+    private final boolean directed;
+    private final int cell_bytes;
+    private final long cells;
+    private final MappedByteBuffer[] segments;
+    private final CellHistogram histogram;
+
+    private MappedEdgeMatrix(FileChannel channel, int n, int M, boolean directed, int cell_bytes) throws IOException {
+        this.n = n;
+        this.M = M;
+        this.directed = directed;
+        this.cell_bytes = cell_bytes;
+        this.cells = directed ? (long)M * M : (long)M * (M + 1) / 2;
+        this.histogram = new CellHistogram(n);
+
+        long bytes = cells * cell_bytes;
+        segments = new MappedByteBuffer[(int)((bytes + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for(int s = 0; s < segments.length; ++s) {
+            long start = (long)s << SEGMENT_SHIFT;
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_MASK + 1, bytes - start));
+        }
+    }
+
+    // creates a zeroed matrix backed by file, replacing any previous content
+    public static MappedEdgeMatrix create(File file, int n, int M, boolean directed) {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int cell_bytes = BlockedEdgeMatrix.cellBytes(n);
+            long cells = directed ? (long)M * M : (long)M * (M + 1) / 2;
+            raf.setLength(0);
+            raf.setLength(cells * cell_bytes);
+            return new MappedEdgeMatrix(raf.getChannel(), n, M, directed, cell_bytes);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // creates a matrix backed by an unlinked temporary file, so nothing is left behind when the JVM exits
+    public static MappedEdgeMatrix createTemporary(int n, int M, boolean directed) {
+        try {
+            File file = File.createTempFile("faithmcs", ".edges");
+            MappedEdgeMatrix matrix = create(file, n, M, directed);
+            if(!file.delete()) file.deleteOnExit();
+            return matrix;
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int countEdges() {
+        return histogram.atLeast(n);
+    }
+
+    @Override
+    public int countEdges(int k) {
+        return histogram.atLeast(k);
+    }
+
+    @Override
+    public int size() {
+        return M;
+    }
+
+    @Override
+    public long heapBytes() {
+        return 0;
+    }
+
+    @Override
+    public int get(int i, int j) {
+        return cell(index(i, j));
+    }
+
+    @Override
+    public void set(int i, int j, int value) {
+        long x = index(i, j);
+        histogram.update(cell(x), value);
+        setCell(x, value);
+    }
+
+    // the cells are written with absolute puts at distinct offsets, which leave the state of the buffers alone
+    @Override
+    public boolean concurrentFill() {
+        return true;
+    }
+
+    @Override
+    public void fill(int i, int j, int value) {
+        setCell(index(i, j), value);
+    }
+
+    @Override
+    public void addCounts(int[] values) {
+        histogram.add(values);
+    }
+
+    @Override
+    public void increment(int i, int j) {
+        long x = index(i, j);
+        int value = cell(x);
+        histogram.increment(value);
+        setCell(x, value + 1);
+    }
+
+    @Override
+    public void decrement(int i, int j) {
+        long x = index(i, j);
+        int value = cell(x);
+        histogram.decrement(value);
+        setCell(x, value - 1);
+    }
+
+    private long index(int i, int j) {
+        if(directed) return (long)i * M + j;
+        if(i <= j)
+            return (long)i * M + j - ((long)i * (i+1) / 2);
+        else
+            return (long)j * M + i - ((long)j * (j+1) / 2);
+    }
+
+    private int cell(long x) {
+        long address = x * cell_bytes;
+        MappedByteBuffer segment = segments[(int)(address >>> SEGMENT_SHIFT)];
+        int offset = (int)(address & SEGMENT_MASK);
+        switch(cell_bytes) {
+            case 1: return segment.get(offset) & 0xFF;
+            case 2: return segment.getShort(offset) & 0xFFFF;
+            default: return segment.getInt(offset);
+        }
+    }
+
+    private void setCell(long x, int value) {
+        long address = x * cell_bytes;
+        MappedByteBuffer segment = segments[(int)(address >>> SEGMENT_SHIFT)];
+        int offset = (int)(address & SEGMENT_MASK);
+        switch(cell_bytes) {
+            case 1: segment.put(offset, (byte)value); break;
+            case 2: segment.putShort(offset, (short)value); break;
+            default: segment.putInt(offset, value);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package dk.sdu.compbio.faithmcs;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+
+// heap estimate of an alignment run, made once the networks are loaded and before anything of the size of the
+// alignment is allocated. every structure is estimated from the number of networks n, positions M and nodes and edges
+// of each network; the loaded networks themselves are measured. the estimate is checked against the memory budget, the
+// edge matrix gets whatever the rest leaves, and a run which cannot fit fails before the search starts. at the end
+// report() prints the estimates next to the sizes of the structures which were actually allocated and the peak heap.
+// the multilevel, partitioned and progressive modes run one engine over all networks last, which bounds the search
+// state of their other engines. only the edge matrices of their concurrent engines can exceed it, see FaithMCS
+public class MemoryPlan {
+    public static final String NETWORKS = "networks";
+    public static final String SEARCH_STATE = "search state";
+    public static final String EDGE_MATRIX = "edge matrix";
+    public static final String SNAPSHOTS = "snapshots";
+    public static final String SETUP = "setup scratch";
+    public static final String OUTPUT = "output";
+    // heap of a loaded network per edge, nodes and labels included, measured on the wiki networks
+    private static final long NETWORK_BYTES_PER_EDGE = 300;
+
+    private final long budget;
+    private final int replicas;
+    private final Map<String,Long> estimates = new LinkedHashMap<>();
+
+    // replicas is the number of search engines, each with search state and edge matrix of its own
+    public MemoryPlan(List<? extends Graph<Node,Edge>> networks, boolean directed, long budget, int replicas, boolean conserved_network, int exceptions) {
+        this.budget = budget;
+        this.replicas = replicas;
+        int n = networks.size();
+        long M = networks.stream().mapToInt(g -> g.vertexSet().size()).max().getAsInt();
+        long nodes = networks.stream().mapToLong(g -> g.vertexSet().size()).sum();
+        long edges = networks.stream().mapToLong(g -> g.edgeSet().size()).sum();
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        estimates.put(NETWORKS, runtime.totalMemory() - runtime.freeMemory());
+        // per network: offsets, adjacency (both endpoints), positions and best positions, occupants, padding and its
+        // index (M each), the node list. plus the candidate scratch
+        estimates.put(SEARCH_STATE, replicas * (4L * (directed ? 2 : 1) * nodes + 8L * edges + 8L * nodes + 4L * 3 * n * M + 8L * nodes + 4L * M));
+        // the published snapshot and the alignment handed out at the end: a reference per network and position
+        estimates.put(SNAPSHOTS, replicas * 2L * 8 * n * M);
+        // the sorted cell keys of fillEdges() and the node indexes built in parallel
+        estimates.put(SETUP, 8L * edges + 48L * nodes);
+        // building the conserved network: the endpoints and cell keys of AlignmentScorer and the network itself, which
+        // has at most as many edges as the networks have conserved in n - exceptions of them
+        estimates.put(OUTPUT, conserved_network ? 8L * edges + 16L * edges + NETWORK_BYTES_PER_EDGE * edges / (n - exceptions) : 0);
+    }
+
+    // the budget left to the edge matrix of one engine. the setup scratch and the output are not alive at the same time
+    public long matrixBudget() {
+        long rest = estimates.get(NETWORKS) + estimates.get(SEARCH_STATE) + estimates.get(SNAPSHOTS) + Math.max(estimates.get(SETUP), estimates.get(OUTPUT));
+        return (budget - rest) / replicas;
+    }
+
+    // fixes the estimate of the edge matrix of every engine and checks the total against the budget
+    public void setEdgeMatrix(long bytes) {
+        estimates.put(EDGE_MATRIX, replicas * bytes);
+    }
+
+    public long total() {
+        return estimates.get(NETWORKS) + estimates.get(SEARCH_STATE) + estimates.getOrDefault(EDGE_MATRIX, 0L)
+                + estimates.get(SNAPSHOTS) + Math.max(estimates.get(SETUP), estimates.get(OUTPUT));
+    }
+
+    public boolean fits() {
+        return total() <= budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public void print() {
+        System.err.println(String.format("Memory plan: %s of a %s budget", mb(total()), mb(budget)));
+        estimates.forEach((structure, bytes) -> System.err.println(String.format("  %-14s %10s", structure, mb(bytes))));
+    }
+
+    // actual holds the sizes of the structures which were allocated, summed over the engines
+    public void report(Map<String,Long> actual) {
+        System.err.println(String.format("Memory used (estimated / actual): peak heap %s of a %s budget", mb(peakHeap()), mb(budget)));
+        estimates.forEach((structure, bytes) -> {
+            Long used = structure.equals(NETWORKS) ? bytes : actual.get(structure);
+            System.err.println(String.format("  %-14s %10s / %s", structure, mb(bytes), used == null ? "-" : mb(used)));
+        });
+    }
+
+    // the usage of a mode which runs engines, up to concurrent of them at a time, before its last engine: per structure
+    // the larger of the last engine and the largest engines which may run together
+    public static Map<String,Long> peakUsage(List<Map<String,Long>> engines, int concurrent, Map<String,Long> last) {
+        Map<String,Long> peak = new HashMap<>(last);
+        for(String structure : last.keySet()) {
+            long together = engines.stream().map(usage -> usage.getOrDefault(structure, 0L))
+                    .sorted(Comparator.reverseOrder()).limit(concurrent).mapToLong(Long::longValue).sum();
+            peak.merge(structure, together, Math::max);
+        }
+        return peak;
+    }
+
+    private static String mb(long bytes) {
+        return String.format("%.1fMB", bytes / (double)(1 << 20));
+    }
+
+    // sum of the peak usage of the heap pools. the pools peak at different times, so this is an upper bound
+    public static long peakHeap() {
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    // a number of bytes with an optional k, m, g or t suffix
+    public static long parseSize(String size) {
+        String s = size.trim().toLowerCase();
+        int shift = 0;
+        switch(s.isEmpty() ? ' ' : s.charAt(s.length() - 1)) {
+            case 'k': shift = 10; break;
+            case 'm': shift = 20; break;
+            case 'g': shift = 30; break;
+            case 't': shift = 40; break;
+        }
+        try {
+            return Long.parseLong(shift == 0 ? s : s.substring(0, s.length() - 1)) << shift;
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dk.sdu.compbio.faithmcs;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
+
+import java.util.*;
+
+// alignment of a query network against a reference, see QuerySearch. it only has rows for the query nodes and their
+// reference nodes, so building the conserved network looks at the edges of the query and of its images in the
+// reference, never at the whole reference
+public class QueryAlignment implements Alignment<Node,Edge> {
+    private final List<List<Node>> alignment;
+    private final UndirectedNetwork reference, query;
+
+    public QueryAlignment(List<List<Node>> alignment, UndirectedNetwork reference, UndirectedNetwork query) {
+        this.alignment = alignment;
+        this.reference = reference;
+        this.query = query;
+    }
+
+    @Override
+    public List<List<Node>> getAlignment() {
+        return alignment;
+    }
+
+    // with an exception, edges of only the query or only the reference between aligned nodes are reported as well
+    @Override
+    public UndirectedNetwork buildNetwork(int exceptions, boolean remove_leaf_exceptions) {
+        List<Node> images = alignment.get(0);
+        List<Node> query_nodes = alignment.get(1);
+        Map<Node,Node> row_of_query = new HashMap<>();
+        Map<Node,Node> row_of_image = new HashMap<>();
+
+        UndirectedNetwork network = new UndirectedNetwork();
+        for(int p = 0; p < images.size(); ++p) {
+            Node node = new Node(images.get(p).getLabel() + "," + query_nodes.get(p).getLabel(), false);
+            node.setPosition(p);
+            network.addVertex(node);
+            row_of_query.put(query_nodes.get(p), node);
+            row_of_image.put(images.get(p), node);
+        }
+
+        Map<Node,Node> image_of = new HashMap<>();
+        for(int p = 0; p < images.size(); ++p) {
+            image_of.put(query_nodes.get(p), images.get(p));
+        }
+        for(Edge e : query.edgeSet()) {
+            Edge reference_edge = reference.getEdge(image_of.get(e.getSource()), image_of.get(e.getTarget()));
+            if(reference_edge == null && exceptions < 1) continue;
+            Node u = row_of_query.get(e.getSource());
+            Node v = row_of_query.get(e.getTarget());
+            String label = reference_edge == null ? e.getLabel() : reference_edge.getLabel() + "," + e.getLabel();
+            network.addEdge(u, v, new Edge(u, v, label, reference_edge == null ? 1 : 2));
+        }
+        if(exceptions >= 1) {
+            for(Node image : images) {
+                for(Edge e : reference.edgesOf(image)) {
+                    Node u = row_of_image.get(e.getSource());
+                    Node v = row_of_image.get(e.getTarget());
+                    if(u == null || v == null || network.containsEdge(u, v)) continue;
+                    network.addEdge(u, v, new Edge(u, v, e.getLabel(), 1));
+                }
+            }
+        }
+
+        if(remove_leaf_exceptions) {
+            Set<Node> remove_nodes = new HashSet<>();
+            for(Edge e : network.edgeSet()) {
+                if(e.getConservation() < 2) {
+                    if(network.degreeOf(e.getSource()) == 1) remove_nodes.add(e.getSource());
+                    if(network.degreeOf(e.getTarget()) == 1) remove_nodes.add(e.getTarget());
+                }
+            }
+            network.removeAllVertices(remove_nodes);
+        }
+
+        return network;
+    }
+}
@@ -0,0 +1,167 @@
+package dk.sdu.compbio.faithmcs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+// on-disk cache of the outputs of alignment runs. an entry is a directory named by the SHA-256 of the bytes of the input
+// networks, in order, and of the parameters of the run, holding the alignment table and the conserved networks written by
+// runs with that key (one per output format). entries are used least recently first: a hit or store touches the
+// modification time of the entry, and after a store the oldest entries are deleted until the cache fits its size.
+// files are copied in through a temporary file and an atomic move, so processes sharing a cache never see half a file
+public class ResultCache {
+    // bumped whenever a change to the search changes the alignment a run produces
+    private static final int VERSION = 1;
+    private static final String ALIGNMENT = "alignment.tsv";
+    private static final String NETWORK = "network";
+
+    private final Path directory;
+    private final long max_bytes;
+
+    public ResultCache(File directory, long max_bytes) throws IOException {
+        this.directory = directory.toPath();
+        this.max_bytes = max_bytes;
+        Files.createDirectories(this.directory);
+    }
+
+    // parameters are name=value strings. they are sorted, so the order they were given in does not matter
+    public static String key(List<File> networks, boolean directed, Collection<String> parameters) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        update(digest, "faithmcs " + VERSION + " " + FaithMCS.class.getPackage().getImplementationVersion());
+        update(digest, directed ? "directed" : "undirected");
+        for(File network : networks) {
+            update(digest, "network " + Files.size(network.toPath()));
+            try(InputStream in = new DigestInputStream(Files.newInputStream(network.toPath()), digest)) {
+                while(in.read(buffer) != -1);
+            }
+        }
+        List<String> sorted = new ArrayList<>(parameters);
+        Collections.sort(sorted);
+        for(String parameter : sorted) {
+            update(digest, parameter);
+        }
+        StringBuilder key = new StringBuilder();
+        for(byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    // copies the cached outputs of key to alignment and network, either of which may be null. false, and nothing is
+    // copied, unless the entry holds everything asked for
+    public boolean get(String key, File alignment, File network) {
+        Path entry = directory.resolve(key);
+        Path cached_alignment = entry.resolve(ALIGNMENT);
+        Path cached_network = network == null ? null : entry.resolve(networkName(network));
+        if(!Files.isRegularFile(cached_alignment) || (cached_network != null && !Files.isRegularFile(cached_network))) {
+            return false;
+        }
+        try {
+            if(alignment != null) Files.copy(cached_alignment, alignment.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if(network != null) Files.copy(cached_network, network.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch(IOException e) {
+            // evicted by another process while copying
+            System.err.println(String.format("warning: could not read cache entry %s: %s", key, e.getMessage()));
+            return false;
+        }
+        return true;
+    }
+
+    // adds the alignment table and, if not null, the conserved network to the entry of key, then evicts
+    public void put(String key, File alignment, File network) throws IOException {
+        Path entry = directory.resolve(key);
+        Files.createDirectories(entry);
+        copyIn(alignment.toPath(), entry.resolve(ALIGNMENT));
+        if(network != null) copyIn(network.toPath(), entry.resolve(networkName(network)));
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        evict(entry);
+    }
+
+    // deletes entries least recently used first while the cache is larger than max_bytes, except keep
+    private void evict(Path keep) throws IOException {
+        Map<Path,Long> sizes = new HashMap<>();
+        Map<Path,FileTime> used = new HashMap<>();
+        try(DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for(Path entry : entries) {
+                try {
+                    sizes.put(entry, size(entry));
+                    used.put(entry, Files.getLastModifiedTime(entry));
+                } catch(NoSuchFileException e) {
+                    // evicted by another process
+                }
+            }
+        }
+        long total = sizes.values().stream().mapToLong(Long::longValue).sum();
+        List<Path> lru = new ArrayList<>(used.keySet());
+        lru.sort(Comparator.comparing(used::get));
+        for(Path entry : lru) {
+            if(total <= max_bytes) break;
+            if(entry.equals(keep)) continue;
+            delete(entry);
+            total -= sizes.get(entry);
+            System.err.println(String.format("Evicted cache entry %s (%d bytes)", entry.getFileName(), sizes.get(entry)));
+        }
+    }
+
+    private static long size(Path entry) throws IOException {
+        try(Stream<Path> files = Files.list(entry)) {
+            long size = 0;
+            for(Path file : (Iterable<Path>)files::iterator) {
+                size += Files.size(file);
+            }
+            return size;
+        }
+    }
+
+    private static void delete(Path entry) throws IOException {
+        try(Stream<Path> files = Files.list(entry)) {
+            for(Path file : (Iterable<Path>)files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        } catch(NoSuchFileException e) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(entry);
+        } catch(DirectoryNotEmptyException e) {
+            // another process stored into it meanwhile, so it is in use again
+        }
+    }
+
+    private static void copyIn(Path source, Path target) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // conserved networks of different formats are different files of the entry
+    private static String networkName(File network) {
+        String name = network.getName();
+        int dot = name.lastIndexOf('.');
+        return dot == -1 ? NETWORK : NETWORK + name.substring(dot).toLowerCase();
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+    }
+}
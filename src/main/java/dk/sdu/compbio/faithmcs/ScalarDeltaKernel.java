@@ -0,0 +1,24 @@
+package dk.sdu.compbio.faithmcs;
+
+class ScalarDeltaKernel implements DeltaKernel {
+    private final EdgeMatrix edges;
+
+    ScalarDeltaKernel(EdgeMatrix edges) {
+        this.edges = edges;
+    }
+
+    @Override
+    public int gain(int i, int j, int[] adj, int from, int to, int[] pos) {
+        int gain = 0;
+        for(int k = from; k < to; ++k) {
+            int l = pos[adj[k]];
+            gain += edges.get(j, l) - edges.get(i, l);
+        }
+        return gain;
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
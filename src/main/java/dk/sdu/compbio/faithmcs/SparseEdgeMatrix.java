@@ -0,0 +1,147 @@
+package dk.sdu.compbio.faithmcs;
+
+import java.util.Arrays;
+
+// edge matrix which only stores non-zero cells, in an open addressing hash table with linear probing. the number of
+// non-zero cells never exceeds the total number of edges in all networks, so memory scales with the edges rather than M^2
+public class SparseEdgeMatrix implements EdgeMatrix {
+    private static final long EMPTY = -1;
+
+    private final int n, M;
+    private final boolean directed;
+    private long[] keys;
+    private int[] values;
+    private int mask, size;
+    private final CellHistogram histogram;
+
+    public SparseEdgeMatrix(int n, int M, boolean directed, long expected_cells) {
+        this.n = n;
+        this.M = M;
+        this.directed = directed;
+        this.histogram = new CellHistogram(n);
+        allocate(capacity(expected_cells));
+    }
+
+    public SparseEdgeMatrix(int n, int M, boolean directed) {
+        this(n, M, directed, 1024);
+    }
+
+    // table capacity for the given number of cells at a load factor of at most 1/2
+    public static int capacity(long cells) {
+        long capacity = Long.highestOneBit(Math.max(cells, 8) * 2 - 1) << 1;
+        if(capacity > 1 << 30) {
+            throw new IllegalArgumentException(String.format("Too many cells for a sparse edge matrix: %d", cells));
+        }
+        return (int)capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    @Override
+    public int countEdges() {
+        return histogram.atLeast(n);
+    }
+
+    @Override
+    public int countEdges(int k) {
+        return histogram.atLeast(k);
+    }
+
+    @Override
+    public int size() {
+        return M;
+    }
+
+    // the table grows with the cells, so this may exceed the estimate for the expected cells
+    @Override
+    public long heapBytes() {
+        return 12L * keys.length;
+    }
+
+    @Override
+    public int get(int i, int j) {
+        long key = key(i, j);
+        for(int x = slot(key); ; x = (x + 1) & mask) {
+            if(keys[x] == key) return values[x];
+            if(keys[x] == EMPTY) return 0;
+        }
+    }
+
+    @Override
+    public void set(int i, int j, int value) {
+        long key = key(i, j);
+        int x = slot(key);
+        while(keys[x] != key && keys[x] != EMPTY) {
+            x = (x + 1) & mask;
+        }
+        histogram.update(keys[x] == EMPTY ? 0 : values[x], value);
+        if(keys[x] == EMPTY) {
+            if(value == 0) return;
+            keys[x] = key;
+            values[x] = value;
+            if(++size > keys.length / 2) rehash();
+        } else if(value == 0) {
+            remove(x);
+        } else {
+            values[x] = value;
+        }
+    }
+
+    @Override
+    public void increment(int i, int j) {
+        set(i, j, get(i, j) + 1);
+    }
+
+    @Override
+    public void decrement(int i, int j) {
+        set(i, j, get(i, j) - 1);
+    }
+
+    private long key(int i, int j) {
+        if(!directed && i > j) return (long)j * M + i;
+        return (long)i * M + j;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    // backward shift deletion, so lookups never need tombstones
+    private void remove(int x) {
+        size--;
+        int gap = x;
+        for(int y = (x + 1) & mask; keys[y] != EMPTY; y = (y + 1) & mask) {
+            int home = slot(keys[y]);
+            // move y into the gap unless its home slot lies cyclically in (gap, y]
+            if(((y - home) & mask) >= ((y - gap) & mask)) {
+                keys[gap] = keys[y];
+                values[gap] = values[y];
+                gap = y;
+            }
+        }
+        keys[gap] = EMPTY;
+        values[gap] = 0;
+    }
+
+    private void rehash() {
+        long[] old_keys = keys;
+        int[] old_values = values;
+        allocate(keys.length * 2);
+        for(int x = 0; x < old_keys.length; ++x) {
+            if(old_keys[x] != EMPTY) {
+                int y = slot(old_keys[x]);
+                while(keys[y] != EMPTY) y = (y + 1) & mask;
+                keys[y] = old_keys[x];
+                values[y] = old_values[x];
+                size++;
+            }
+        }
+    }
+}
@@ -8,17 +8,20 @@ import java.util.List;
 public class UndirectedEdgeMatrix implements EdgeMatrix {
     private final int n, M;
     private final int[] edges;
+    private final CellHistogram histogram;
 
     public UndirectedEdgeMatrix(int n, int M) {
         this.n = n;
         this.M = M;
-        this.edges = new int[M*(M+1)/2];
+        this.edges = new int[cells(M)];
+        this.histogram = new CellHistogram(n);
     }
 
     public UndirectedEdgeMatrix(List<UndirectedNetwork> networks) {
         this.n = networks.size();
         this.M = networks.stream().mapToInt(v -> v.vertexSet().size()).max().getAsInt();
-        this.edges = new int[M*(M+1)/2];
+        this.edges = new int[cells(M)];
+        this.histogram = new CellHistogram(n);
         for(UndirectedNetwork network : networks) {
             for(Edge e : network.edgeSet()) {
                 int i = e.getSource().getPosition();
@@ -28,16 +31,14 @@ public class UndirectedEdgeMatrix implements EdgeMatrix {
         }
     }
 
-    // counts the number of edges which are present in ALL networks
     @Override
     public int countEdges() {
-        int count = 0;
-        for(int i = 0; i < M-1; ++i) {
-            for(int j = i+1; j < M; ++j) {
-                if(get(i, j) == n) count++;
-            }
-        }
-        return count;
+        return histogram.atLeast(n);
+    }
+
+    @Override
+    public int countEdges(int k) {
+        return histogram.atLeast(k);
     }
 
     @Override
@@ -45,6 +46,11 @@ public class UndirectedEdgeMatrix implements EdgeMatrix {
         return M;
     }
 
+    @Override
+    public long heapBytes() {
+        return 4L * edges.length;
+    }
+
     @Override
     public int get(int i, int j) {
         return edges[index(i, j)];
@@ -52,23 +58,59 @@ public class UndirectedEdgeMatrix implements EdgeMatrix {
 
     @Override
     public void set(int i, int j, int value) {
-        edges[index(i, j)] = value;
+        int x = index(i, j);
+        histogram.update(edges[x], value);
+        edges[x] = value;
     }
 
     @Override
     public void increment(int i, int j) {
-        edges[index(i, j)]++;
+        histogram.increment(edges[index(i, j)]++);
+    }
+
+    @Override
+    public boolean concurrentFill() {
+        return true;
+    }
+
+    @Override
+    public void fill(int i, int j, int value) {
+        edges[index(i, j)] = value;
+    }
+
+    @Override
+    public void addCounts(int[] values) {
+        histogram.add(values);
     }
 
     @Override
     public void decrement(int i, int j) {
-        edges[index(i, j)]--;
+        histogram.decrement(edges[index(i, j)]--);
+    }
+
+    // raw triangle storage, for delta kernels that compute indices themselves
+    int[] data() {
+        return edges;
     }
 
     private int index(int i, int j) {
+        return index(M, i, j);
+    }
+
+    // the triangle has to fit in an int array, so M < 65536 and i * (i+1) fits in 32 unsigned bits. the other
+    // intermediate products may wrap around, but the final index fits in an int and is therefore exact
+    static int index(int M, int i, int j) {
         if(i <= j)
-            return i * M + j - (i * (i+1) / 2);
+            return i * M + j - (i * (i+1) >>> 1);
         else
-            return j * M + i - (j * (j+1) / 2);
+            return j * M + i - (j * (j+1) >>> 1);
+    }
+
+    private static int cells(int M) {
+        long cells = (long)M * (M+1) / 2;
+        if(cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(String.format("Too many positions for a dense edge matrix: %d. Use the mapped edge matrix instead.", M));
+        }
+        return (int)cells;
     }
 }
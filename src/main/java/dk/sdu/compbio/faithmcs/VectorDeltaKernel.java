@@ -0,0 +1,56 @@
+package dk.sdu.compbio.faithmcs;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// compiled only by the vector profile (JDK 16+) and loaded reflectively by DeltaKernel.create()
+class VectorDeltaKernel implements DeltaKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private final int M;
+    private final int[] edges;
+    // gather index maps must be arrays, so the matrix indices of a batch are staged here before loading
+    private final ThreadLocal<int[]> index_map = ThreadLocal.withInitial(() -> new int[2 * SPECIES.length()]);
+
+    VectorDeltaKernel(UndirectedEdgeMatrix edges) {
+        this.M = edges.size();
+        this.edges = edges.data();
+    }
+
+    @Override
+    public int gain(int i, int j, int[] adj, int from, int to, int[] pos) {
+        int lanes = SPECIES.length();
+        int[] map = index_map.get();
+        IntVector sum = IntVector.zero(SPECIES);
+
+        int k = from;
+        for(; k <= to - lanes; k += lanes) {
+            IntVector l = IntVector.fromArray(SPECIES, pos, 0, adj, k);
+            index(i, l).intoArray(map, 0);
+            index(j, l).intoArray(map, lanes);
+            IntVector ei = IntVector.fromArray(SPECIES, edges, 0, map, 0);
+            IntVector ej = IntVector.fromArray(SPECIES, edges, 0, map, lanes);
+            sum = sum.add(ej).sub(ei);
+        }
+
+        int gain = sum.reduceLanes(VectorOperators.ADD);
+        for(; k < to; ++k) {
+            int l = pos[adj[k]];
+            gain += edges[UndirectedEdgeMatrix.index(M, j, l)] - edges[UndirectedEdgeMatrix.index(M, i, l)];
+        }
+        return gain;
+    }
+
+    // lane-wise UndirectedEdgeMatrix.index(M, i, l)
+    private IntVector index(int i, IntVector l) {
+        IntVector lo = l.min(i);
+        IntVector hi = l.max(i);
+        return lo.mul(M).add(hi).sub(lo.mul(lo.add(1)).lanewise(VectorOperators.LSHR, 1));
+    }
+
+    @Override
+    public String toString() {
+        return "vector (" + SPECIES + ")";
+    }
+}
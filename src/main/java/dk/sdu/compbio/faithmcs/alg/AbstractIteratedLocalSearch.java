@@ -0,0 +1,733 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.Alignment;
+import dk.sdu.compbio.faithmcs.EdgeMatrix;
+import dk.sdu.compbio.faithmcs.EdgeMatrixFactory;
+import dk.sdu.compbio.faithmcs.MemoryPlan;
+import dk.sdu.compbio.faithmcs.SparseEdgeMatrix;
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// the iterated local search shared by the undirected and directed engines: the state of the alignment, the steps,
+// the local search passes and their concurrency, the snapshots and the settings. the subclasses lay out the adjacency
+// arrays and compute the change in objective of a swap on them. every node has lists neighbor lists, which lie next
+// to each other in adjacency: all neighbors of node k in network i are adjacency[i][offsets[i][lists*k]] ..
+// adjacency[i][offsets[i][lists*k+lists]-1]
+abstract class AbstractIteratedLocalSearch<G extends Graph<Node,Edge>, A extends Alignment<Node,Edge>> implements IteratedLocalSearch {
+    protected final int n, M;
+    protected final List<G> networks;
+    private final int lists;
+    private final int min_lsi_swaps;
+    private final int MIN_LSI_SWAP_RATIO = 1000;
+    // at most this many local search candidates are taken from the neighbors of one node (hubs are sampled)
+    private final int MAX_NEIGHBOR_CANDIDATES = 64;
+    private float perturbation_amount;
+    private int max_lsi_passes = Integer.MAX_VALUE;
+    private int lsi_passes;
+    private PerturbationScheduler scheduler;
+    private StepHook step_hook;
+    private PerturbationStrategy strategy = PerturbationStrategy.UNIFORM;
+    private boolean local_candidates = false;
+    // local search passes over the networks run concurrently, see commit()
+    private boolean concurrent_networks = false;
+    private final Object commit_lock = new Object();
+    // concurrent passes go in rounds which do not depend on the scheduling, see localSearchRounds()
+    private boolean deterministic = false;
+    // swaps of the current pass dropped by commit()
+    private int rejected;
+    // the objective counts the cells conserved in at least this many networks, see setExceptions()
+    protected int threshold;
+
+    // nodes.get(i).get(k) is the kth node of network i in degree order. below, nodes are referred to by this index k
+    protected final List<List<Node>> nodes;
+    protected final int[][] offsets, adjacency;
+    // positions[i][k] is the position of node k. occupants[i][p] is the node at position p, or -1 for padding
+    protected final int[][] positions, occupants;
+    protected final int[][] padding, padding_index;
+    protected final EdgeMatrix edges;
+    private final int[][] best_positions;
+    private int quality, best_quality;
+    private int steps;
+    private volatile AlignmentSnapshot snapshot;
+    protected final Random rand;
+    // scratch for deduplicating local search candidates
+    private final int[] seen;
+    private int stamp;
+
+    // degree orders the nodes of network i, index() fills offsets[i] and adjacency[i]
+    protected AbstractIteratedLocalSearch(List<G> networks, float perturbation_amount, long random_seed, EdgeMatrixFactory matrix_factory, boolean directed) {
+        this.networks = networks;
+        this.lists = directed ? 2 : 1;
+        // min_lsi_swaps uses the min of the edges instead of the max because the # of swaps is limited to the min # of edges.
+        // it is at least 1, otherwise the local search of a network with fewer than MIN_LSI_SWAP_RATIO edges never stops
+        this.min_lsi_swaps = Math.max(1, networks.stream().mapToInt(g -> g.edgeSet().size()).min().getAsInt() / MIN_LSI_SWAP_RATIO);
+        this.perturbation_amount = perturbation_amount;
+
+        n = networks.size();
+        threshold = n;
+        M = networks.stream().mapToInt(g -> g.vertexSet().size()).max().getAsInt();
+
+        // the networks are indexed in parallel, each on its own: degree order, adjacency arrays and padding
+        long setup_start = System.currentTimeMillis();
+        // list of lists of (real) nodes in each network, sorted by degree in descending order
+        nodes = IntStream.range(0, n).parallel().mapToObj(i -> {
+            List<Node> node_list = new ArrayList<>(networks.get(i).vertexSet());
+            node_list.sort(Comparator.comparingInt((Node u) -> degree(networks.get(i), u)).reversed());
+            return node_list;
+        }).collect(Collectors.toList());
+
+        offsets = new int[n][];
+        adjacency = new int[n][];
+        // different networks may have different numbers of nodes, so smaller networks are padded up to M positions.
+        // padding is implicit: a position without an occupant holds no node and no edges. see writeAlignment()
+        // padding[i] lists the free positions of network i and padding_index[i] maps a position back into that list
+        positions = new int[n][];
+        occupants = new int[n][];
+        padding = new int[n][];
+        padding_index = new int[n][];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            List<Node> node_list = nodes.get(i);
+            Map<Node,Integer> index = new HashMap<>();
+            for(int k = 0; k < node_list.size(); ++k) {
+                index.put(node_list.get(k), k);
+            }
+            index(i, index);
+
+            int N = node_list.size();
+            positions[i] = new int[N];
+            occupants[i] = new int[M];
+            padding_index[i] = new int[M];
+            for(int k = 0; k < N; ++k) {
+                positions[i][k] = k;
+                occupants[i][k] = k;
+                padding_index[i][k] = -1;
+            }
+            padding[i] = new int[M - N];
+            for(int p = N; p < M; ++p) {
+                occupants[i][p] = -1;
+                padding[i][p - N] = p;
+                padding_index[i][p] = p - N;
+            }
+        });
+        long indexed = System.currentTimeMillis();
+
+        edges = matrix_factory.create(n, M, directed);
+        fillEdges();
+        System.err.println(String.format("Setup took %dms: %d networks indexed in %dms, edge matrix of %d positions filled in %dms", System.currentTimeMillis() - setup_start, n, indexed - setup_start, M, System.currentTimeMillis() - indexed));
+
+        seen = new int[M];
+
+        if (random_seed == -1) {
+            System.out.println("Using random seed");
+            rand = new Random();
+        } else {
+            System.out.println("Using seed " + random_seed);
+            rand = new Random(random_seed);
+        }
+
+        // the nodes at position X in all the networks will be aligned to each other. For example, if node15 in A and node38 in B are both in position 0, they'll be aligned to each other
+        // best_position[i][j] refers to the position of the jth node in the ith network
+        // the "jth node" in a network is the node with the jth highest degree
+        best_positions = new int[n][];
+        for(int i = 0; i < n; ++i) {
+            best_positions[i] = new int[nodes.get(i).size()];
+        }
+        copyPositions(positions, best_positions);
+        best_quality = edges.countEdges();
+        publishSnapshot();
+    }
+
+    // the degree which orders the nodes of a network
+    protected abstract int degree(G network, Node u);
+
+    // fills offsets[i] and adjacency[i] of network i. index maps its nodes to their index in degree order
+    protected abstract void index(int i, Map<Node,Integer> index);
+
+    // change in the sum of squares objective when moving node u of network g to position p, swapping it with the node
+    // at p (if p is not padding)
+    protected abstract int delta(int g, int u, int p);
+
+    // change in the number of cells conserved in at least threshold networks when moving node u to position p
+    protected abstract int thresholdDelta(int g, int u, int p);
+
+    // moves node u of network g to position p. the node v at p (if p is not padding) takes the old position of u, see
+    // move()
+    protected abstract void swap(int g, int u, int p);
+
+    // number of edges of node u of network g at position p in cells conserved in fewer than threshold networks
+    protected abstract int unconserved(int g, int u, int p);
+
+    // the sorted cell keys of the edges of network g, see fillEdges()
+    protected abstract long[] cellKeys(int g);
+
+    protected interface EdgeConsumer {
+        void accept(int g, int a, int b);
+    }
+
+    // visits every edge of every network once
+    protected abstract void forEachEdge(EdgeConsumer consumer);
+
+    protected abstract A newAlignment(List<List<Node>> alignment);
+
+    @Override
+    public void run(int max_nonimproving, int max_num_steps) {
+        System.err.println(String.format("running with max_nonimproving=%d, max_num_steps=%d, perturbation_amount=%f", max_nonimproving, max_num_steps, perturbation_amount));
+
+        int nonimproving = 0;
+        int num_steps = 0;
+        while(nonimproving < max_nonimproving && num_steps < max_num_steps) {
+            nonimproving++;
+            boolean improved = step();
+            if(improved) {
+                nonimproving = 0;
+            }
+            num_steps++;
+            System.err.println(String.format("step: %d, current: %d edges, best: %d edges", num_steps, quality, best_quality));
+            if(scheduler != null) {
+                scheduler.update(this, improved);
+            }
+            if(step_hook != null && step_hook.afterStep(num_steps)) {
+                nonimproving = 0;
+            }
+        }
+    }
+
+    @Override
+    public boolean step() {
+        // perturbation step
+        // M is the max amount of nodes out of all the networks. swapping two padding positions is a no-op, so those are skipped
+        int count = Math.round(M * perturbation_amount);
+        for(int i = 1; i < n; ++i) {
+            long[] weights = strategy == PerturbationStrategy.TARGETED ? perturbationWeights(i) : null;
+            for(int rep = 0; rep < count; ++rep) {
+                int j = weights == null ? rand.nextInt(M) : PerturbationStrategy.sample(weights, rand);
+                int k;
+                do k = weights == null ? rand.nextInt(M) : PerturbationStrategy.sample(weights, rand); while(k == j);
+                if(occupants[i][j] != -1) {
+                    swap(i, occupants[i][j], k);
+                } else if(occupants[i][k] != -1) {
+                    swap(i, occupants[i][k], j);
+                }
+            }
+        }
+
+        // local search step
+        boolean repeat = true;
+        int num_iterations = 0;
+        int num_swaps_this_iteration = 0;
+        while(repeat) {
+            repeat = false;
+            num_swaps_this_iteration = 0;
+            long iteration_start_time = System.currentTimeMillis();
+            boolean concurrent = concurrent_networks && !local_candidates && n > 2;
+            if(concurrent && deterministic) {
+                num_swaps_this_iteration = localSearchRounds();
+            } else if(concurrent) {
+                num_swaps_this_iteration = IntStream.range(1, n).parallel().map(i -> localSearchPass(i, true)).sum();
+            } else {
+                for(int i = 1; i < n; ++i) {
+                    num_swaps_this_iteration += localSearchPass(i, false);
+                }
+            }
+            num_iterations += 1;
+            long iteration_end_time = System.currentTimeMillis();
+
+            if (num_swaps_this_iteration >= this.min_lsi_swaps && num_iterations < max_lsi_passes) {
+                repeat = true;
+            }
+
+            System.err.println("LSI " + num_iterations + ", S=" + num_swaps_this_iteration + (concurrent ? ", rejected=" + rejected : ""));
+            rejected = 0;
+            System.err.println("LSI " + num_iterations + " took " + (iteration_end_time - iteration_start_time) + "ms");
+        }
+
+        lsi_passes = num_iterations;
+
+        steps++;
+
+        // count edges
+        quality = edges.countEdges(threshold);
+        if(quality > best_quality) {
+            best_quality = quality;
+            copyPositions(positions, best_positions);
+            publishSnapshot();
+            return true;
+        }
+        return false;
+    }
+
+    // one local search pass over the nodes of network i, returns the number of swaps
+    private int localSearchPass(int i, boolean concurrent) {
+        int swaps = 0;
+        int N = nodes.get(i).size();
+        for(int j = 0; j < N && j < M-1; ++j) {
+            if(local_candidates) {
+                if(localSearch(i, j)) swaps++;
+                continue;
+            }
+
+            int p = bestCandidate(i, j);
+            if(p != -1 && commit(i, j, p, concurrent)) {
+                swaps++;
+            }
+        }
+        return swaps;
+    }
+
+    // the position of largest positive gain for node j of network i, or -1. of equal gains the lowest candidate wins,
+    // which is a total order, so the result does not depend on how the parallel reduction splits the candidates
+    private int bestCandidate(int i, int j) {
+        long[] dts = IntStream.range(j+1, M)
+                .parallel()
+                .mapToLong(k -> gain(i, j, candidatePosition(i, k)))
+                .toArray();
+
+        int best = IntStream.range(j+1, M)
+                .parallel()
+                .reduce((a, b) -> dts[b-(j+1)] > dts[a-(j+1)] || dts[b-(j+1)] == dts[a-(j+1)] && b < a ? b : a)
+                .getAsInt();
+
+        return dts[best-(j+1)] > 0 ? candidatePosition(i, best) : -1;
+    }
+
+    // deterministic concurrent passes. in round j the networks look for the best position of their node j in
+    // parallel, all on the state left by round j-1, and then the swaps are made in network order, each only if its
+    // gain, recomputed after the swaps before it, is still positive. a seeded run makes the same swaps on any number of
+    // threads
+    private int localSearchRounds() {
+        int swaps = 0;
+        int rounds = Math.min(M - 1, nodes.stream().skip(1).mapToInt(List::size).max().getAsInt());
+        int[] best = new int[n];
+        for(int j = 0; j < rounds; ++j) {
+            int finalJ = j;
+            IntStream.range(1, n).parallel().forEach(i -> best[i] = finalJ < nodes.get(i).size() ? bestCandidate(i, finalJ) : -1);
+            for(int i = 1; i < n; ++i) {
+                if(best[i] == -1) continue;
+                if(gain(i, j, best[i]) > 0) {
+                    swap(i, j, best[i]);
+                    swaps++;
+                } else {
+                    rejected++;
+                }
+            }
+        }
+        return swaps;
+    }
+
+    // swaps node u of network g to position p. passes over different networks only share the edge matrix, so with
+    // concurrent passes the gain found by the scan may be stale: commits are serialised and the swap is only made if
+    // the gain, recomputed under the lock, is still positive
+    private boolean commit(int g, int u, int p, boolean concurrent) {
+        if(!concurrent) {
+            swap(g, u, p);
+            return true;
+        }
+        synchronized(commit_lock) {
+            if(gain(g, u, p) <= 0) {
+                rejected++;
+                return false;
+            }
+            swap(g, u, p);
+            return true;
+        }
+    }
+
+    // moves node u of network g to the best position among those adjacent (in any network and either direction) to the
+    // positions of its neighbors. for any other position, every cell edges(j,l) is 0 while edges(i,l) >= 1, so u cannot
+    // gain there. swaps where only the displaced node gains are found when that node is visited. the neighbors of hubs
+    // are sampled with a random offset and stride, which bounds the candidates per neighbor by MAX_NEIGHBOR_CANDIDATES
+    private boolean localSearch(int g, int u) {
+        int[] off = offsets[g];
+        int[] adj = adjacency[g];
+        int i = positions[g][u];
+
+        stamp++;
+        seen[i] = stamp;
+        int best = -1;
+        long best_delta = 0;
+        for(int x = off[lists*u]; x < off[lists*u+lists]; ++x) {
+            int l = positions[g][adj[x]];
+            for(int h = 0; h < n; ++h) {
+                int w = occupants[h][l];
+                if(w == -1) continue;
+                int degree = offsets[h][lists*w+lists] - offsets[h][lists*w];
+                int stride = (degree + MAX_NEIGHBOR_CANDIDATES - 1) / MAX_NEIGHBOR_CANDIDATES;
+                for(int y = offsets[h][lists*w] + (stride > 1 ? rand.nextInt(stride) : 0); y < offsets[h][lists*w+lists]; y += stride) {
+                    int p = positions[h][adjacency[h][y]];
+                    if(seen[p] == stamp) continue;
+                    seen[p] = stamp;
+                    long dt = gain(g, u, p);
+                    if(dt > best_delta) {
+                        best_delta = dt;
+                        best = p;
+                    }
+                }
+            }
+        }
+
+        if(best == -1) return false;
+        swap(g, u, best);
+        return true;
+    }
+
+    // cumulative perturbation weights of the positions of network g, see PerturbationStrategy.TARGETED. they are
+    // computed once per step, a linear scan over the edges, and not updated while the perturbation swaps nodes
+    private long[] perturbationWeights(int g) {
+        long[] cumulative = new long[M];
+        long total = 0;
+        for(int p = 0; p < M; ++p) {
+            total += PerturbationStrategy.WEIGHT_SCALE;
+            int u = occupants[g][p];
+            if(u != -1) {
+                int degree = offsets[g][lists*u+lists] - offsets[g][lists*u];
+                if(degree > 0) total += (long)PerturbationStrategy.WEIGHT_SCALE * PerturbationStrategy.TARGETED_BIAS * unconserved(g, u, p) / degree;
+            }
+            cumulative[p] = total;
+        }
+        return cumulative;
+    }
+
+    // maps a local search candidate to a position: real nodes come first (in degree order), then the padding positions
+    private int candidatePosition(int i, int k) {
+        int N = positions[i].length;
+        return k < N ? positions[i][k] : padding[i][k - N];
+    }
+
+    private void copyPositions(int[][] from, int[][] to) {
+        for(int i = 0; i < from.length; ++i) {
+            System.arraycopy(from[i], 0, to[i], 0, from[i].length);
+        }
+    }
+
+    // local search gain of moving node u to position p. with exceptions, the change in the number of cells conserved in
+    // at least threshold networks comes first and the sum of squares delta only breaks ties between equal changes. the
+    // two are packed into the high and low word of a long, which compares lexicographically as |delta| < 2^31
+    private long gain(int g, int u, int p) {
+        int delta = delta(g, u, p);
+        if(threshold == n) return delta;
+        return ((long)thresholdDelta(g, u, p) << 32) + delta;
+    }
+
+    // updates the positions after swap() moved the edges of node u to position p
+    protected void move(int g, int u, int p) {
+        int v = occupants[g][p];
+        int i = positions[g][u];
+        int j = p;
+
+        positions[g][u] = j;
+        occupants[g][j] = u;
+        occupants[g][i] = v;
+        if(v != -1) {
+            positions[g][v] = i;
+        } else {
+            // the padding position j is now free at i
+            int k = padding_index[g][j];
+            padding[g][k] = i;
+            padding_index[g][i] = k;
+            padding_index[g][j] = -1;
+        }
+    }
+
+    // continues the search from the given alignment, which becomes both the current and the best solution.
+    // alignment.get(i).get(p) is the node of network i at position p, or null. nodes which are missing, or placed at
+    // a position >= M, are moved to the remaining free positions in degree order
+    @Override
+    public void setAlignment(List<List<Node>> alignment) {
+        forEachEdge((g, a, b) -> edges.decrement(positions[g][a], positions[g][b]));
+
+        for(int g = 0; g < n; ++g) {
+            List<Node> node_list = nodes.get(g);
+            Map<Node,Integer> index = new HashMap<>();
+            for(int k = 0; k < node_list.size(); ++k) {
+                index.put(node_list.get(k), k);
+            }
+
+            Arrays.fill(positions[g], -1);
+            Arrays.fill(occupants[g], -1);
+            List<Node> aligned = alignment.get(g);
+            for(int p = 0; p < M && p < aligned.size(); ++p) {
+                Integer k = aligned.get(p) == null ? null : index.get(aligned.get(p));
+                if(k != null && positions[g][k] == -1) {
+                    positions[g][k] = p;
+                    occupants[g][p] = k;
+                }
+            }
+
+            int p = 0;
+            for(int k = 0; k < node_list.size(); ++k) {
+                if(positions[g][k] != -1) continue;
+                while(occupants[g][p] != -1) p++;
+                positions[g][k] = p;
+                occupants[g][p] = k;
+            }
+
+            int free = 0;
+            for(p = 0; p < M; ++p) {
+                if(occupants[g][p] == -1) {
+                    padding[g][free] = p;
+                    padding_index[g][p] = free++;
+                } else {
+                    padding_index[g][p] = -1;
+                }
+            }
+        }
+
+        fillEdges();
+
+        quality = edges.countEdges(threshold);
+        best_quality = quality;
+        copyPositions(positions, best_positions);
+        publishSnapshot();
+    }
+
+    // metropolis moves for ParallelTempering. a random node of a random network other than the first moves to a position
+    // next to where one of its neighbors (in either direction) sits in a random network, like the candidates of
+    // localSearch(), or to a random position if there is none. the move is made if it does not lower the sum of squares
+    // objective, and otherwise with probability exp(delta / temperature). the best alignment is kept as in step()
+    @Override
+    public int anneal(int moves, double temperature) {
+        int accepted = 0;
+        boolean improved = false;
+        for(int m = 0; m < moves; ++m) {
+            int g = 1 + rand.nextInt(n - 1);
+            int u = rand.nextInt(positions[g].length);
+            int p = rand.nextInt(M);
+            if(offsets[g][lists*u+lists] > offsets[g][lists*u]) {
+                int w = adjacency[g][offsets[g][lists*u] + rand.nextInt(offsets[g][lists*u+lists] - offsets[g][lists*u])];
+                int h = rand.nextInt(n);
+                int l = positions[g][w];
+                w = occupants[h][l];
+                if(w != -1 && offsets[h][lists*w+lists] > offsets[h][lists*w]) {
+                    p = positions[h][adjacency[h][offsets[h][lists*w] + rand.nextInt(offsets[h][lists*w+lists] - offsets[h][lists*w])]];
+                }
+            }
+            if(p == positions[g][u]) continue;
+            int delta = delta(g, u, p);
+            if(delta < 0 && rand.nextDouble() >= Math.exp(delta / temperature)) continue;
+            swap(g, u, p);
+            accepted++;
+            int count = edges.countEdges(threshold);
+            if(count > best_quality) {
+                best_quality = count;
+                copyPositions(positions, best_positions);
+                improved = true;
+            }
+        }
+        quality = edges.countEdges(threshold);
+        steps++;
+        if(improved) publishSnapshot();
+        return accepted;
+    }
+
+    // the sum of squares objective, the sum over all cells of the square of their value: every edge adds the value of
+    // its cell. a linear scan over the edges
+    @Override
+    public long getEnergy() {
+        long[] energy = new long[1];
+        forEachEdge((g, a, b) -> energy[0] += edges.get(positions[g][a], positions[g][b]));
+        return energy[0];
+    }
+
+    // adds the edges of all networks to the matrix, whose cells must be 0. the cells of every network are collected as
+    // sorted keys i * M + j in parallel, like in AlignmentScorer, and the merged runs of equal keys are written with one
+    // fill() per cell in key order, instead of one increment per edge at random cells
+    private void fillEdges() {
+        long[][] keys = IntStream.range(0, n).parallel().mapToObj(this::cellKeys).toArray(long[][]::new);
+        setCells(edges, keys, M);
+    }
+
+    // merges the sorted cell keys of the networks and sets every cell to the number of times its key occurs. the rows
+    // are split into ranges of about the same number of keys, found by binary search in every network's keys, and every
+    // range is merged and filled by its own task. the tasks count the values they wrote, which are added at the end
+    private static void setCells(EdgeMatrix edges, long[][] keys, int M) {
+        int n = keys.length;
+        int ranges = edges.concurrentFill() ? Math.min(M, 4 * ForkJoinPool.getCommonPoolParallelism()) : 1;
+        long[] largest = Arrays.stream(keys).max(Comparator.comparingInt(k -> k.length)).get();
+        int[] rows = new int[ranges + 1];
+        for(int r = 1; r < ranges; ++r) {
+            rows[r] = largest.length == 0 ? 0 : (int)(largest[(int)((long)r * largest.length / ranges)] / M);
+        }
+        rows[ranges] = M;
+
+        int[][] counts = IntStream.range(0, ranges).parallel()
+                .mapToObj(r -> setCells(edges, keys, M, rows[r], rows[r+1]))
+                .toArray(int[][]::new);
+        int[] values = new int[n + 1];
+        for(int[] range : counts) {
+            for(int v = 0; v <= n; ++v) values[v] += range[v];
+        }
+        edges.addCounts(values);
+    }
+
+    // merges the keys of rows from <= i < to, and returns how many cells it set to each value
+    private static int[] setCells(EdgeMatrix edges, long[][] keys, int M, int from, int to) {
+        int n = keys.length;
+        int[] next = new int[n];
+        int[] end = new int[n];
+        for(int g = 0; g < n; ++g) {
+            next[g] = lowerBound(keys[g], (long)from * M);
+            end[g] = lowerBound(keys[g], (long)to * M);
+        }
+        int[] values = new int[n + 1];
+        while(true) {
+            long key = Long.MAX_VALUE;
+            for(int g = 0; g < n; ++g) {
+                if(next[g] < end[g] && keys[g][next[g]] < key) key = keys[g][next[g]];
+            }
+            if(key == Long.MAX_VALUE) return values;
+            int count = 0;
+            for(int g = 0; g < n; ++g) {
+                while(next[g] < end[g] && keys[g][next[g]] == key) {
+                    next[g]++;
+                    count++;
+                }
+            }
+            edges.fill((int)(key / M), (int)(key % M), count);
+            values[Math.min(count, n)]++;
+        }
+    }
+
+    // index of the first key >= key
+    private static int lowerBound(long[] keys, long key) {
+        int lo = 0, hi = keys.length;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(keys[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    @Override
+    public void setExceptions(int exceptions) {
+        if(exceptions < 0 || exceptions >= n) {
+            throw new IllegalArgumentException(String.format("Number of exceptions must be between 0 and %d: %d", n - 1, exceptions));
+        }
+        threshold = n - exceptions;
+        quality = edges.countEdges(threshold);
+        best_quality = quality;
+        copyPositions(positions, best_positions);
+        publishSnapshot();
+    }
+
+    @Override
+    public void setMaxLocalSearchPasses(int passes) {
+        this.max_lsi_passes = passes;
+    }
+
+    @Override
+    public void setPerturbationStrategy(PerturbationStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    @Override
+    public void setStepHook(StepHook hook) {
+        this.step_hook = hook;
+    }
+
+    @Override
+    public int getLocalSearchPasses() {
+        return lsi_passes;
+    }
+
+    @Override
+    public void setPerturbationScheduler(PerturbationScheduler scheduler) {
+        this.scheduler = scheduler;
+        if(scheduler != null) {
+            this.perturbation_amount = scheduler.getPerturbationAmount();
+        }
+    }
+
+    // restricts the local search to the candidate positions of localSearch(), which makes a pass roughly linear in
+    // the number of edges instead of quadratic in M
+    public void setLocalCandidates(boolean local_candidates) {
+        this.local_candidates = local_candidates;
+    }
+
+    // the sparse matrix rehashes while it is written, which concurrent readers cannot tolerate. the array backed
+    // layouts are read without locks: a stale value only makes the scan pick a swap which commit() then rejects
+    @Override
+    public void setConcurrentNetworks(boolean concurrent_networks) {
+        if(concurrent_networks && edges instanceof SparseEdgeMatrix) {
+            System.err.println("warning: concurrent network search needs an array backed edge matrix, searching the networks one after another");
+            return;
+        }
+        this.concurrent_networks = concurrent_networks;
+    }
+
+    @Override
+    public void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+
+    // called after aligner.run()
+    @Override
+    public A getAlignment() {
+        // copy best solution back into nodes and place them by position to obtain alignment. padding positions stay null
+        List<List<Node>> alignment = new ArrayList<>();
+        for(int i = 0; i < n; ++i) {
+            Node[] aligned = new Node[M];
+            for(int k = 0; k < nodes.get(i).size(); ++k) {
+                Node node = nodes.get(i).get(k);
+                node.setPosition(best_positions[i][k]);
+                aligned[best_positions[i][k]] = node;
+            }
+            alignment.add(Arrays.asList(aligned));
+        }
+
+        return newAlignment(alignment);
+    }
+
+    @Override
+    public Map<String,Long> getMemoryUsage() {
+        long state = 4L * seen.length;
+        for(int g = 0; g < n; ++g) {
+            state += 4L * (offsets[g].length + adjacency[g].length + positions[g].length + best_positions[g].length
+                    + occupants[g].length + padding[g].length + padding_index[g].length) + 8L * nodes.get(g).size();
+        }
+        Map<String,Long> usage = new HashMap<>();
+        usage.put(MemoryPlan.SEARCH_STATE, state);
+        usage.put(MemoryPlan.EDGE_MATRIX, edges.heapBytes());
+        return usage;
+    }
+
+    @Override
+    public AlignmentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // copies the best alignment into a new snapshot, without touching the nodes. this happens only when the best
+    // alignment changes, and readers of the previous snapshot are unaffected
+    private void publishSnapshot() {
+        List<List<Node>> alignment = new ArrayList<>();
+        for(int i = 0; i < n; ++i) {
+            Node[] aligned = new Node[M];
+            for(int k = 0; k < nodes.get(i).size(); ++k) {
+                aligned[best_positions[i][k]] = nodes.get(i).get(k);
+            }
+            alignment.add(Collections.unmodifiableList(Arrays.asList(aligned)));
+        }
+        snapshot = new AlignmentSnapshot(steps, best_quality, newAlignment(Collections.unmodifiableList(alignment)));
+    }
+
+    @Override
+    public int getCurrentNumberOfEdges() {
+        return quality;
+    }
+
+    @Override
+    public int getBestNumberOfEdges() {
+        return best_quality;
+    }
+
+    @Override
+    public void setPerturbationAmount(float a) {
+        this.perturbation_amount = a;
+    }
+}
@@ -0,0 +1,31 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.Alignment;
+
+// immutable copy of the best alignment of an iterated local search. a search publishes a new snapshot whenever its best
+// alignment changes, so other threads can read and export snapshots while the search continues
+public final class AlignmentSnapshot {
+    private final int step;
+    private final int edges;
+    private final Alignment alignment;
+
+    AlignmentSnapshot(int step, int edges, Alignment alignment) {
+        this.step = step;
+        this.edges = edges;
+        this.alignment = alignment;
+    }
+
+    // number of steps the search had taken when it found the alignment
+    public int getStep() {
+        return step;
+    }
+
+    public int getNumberOfEdges() {
+        return edges;
+    }
+
+    // the alignment table is unmodifiable and never changes
+    public Alignment getAlignment() {
+        return alignment;
+    }
+}
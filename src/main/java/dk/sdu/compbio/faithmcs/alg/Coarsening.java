@@ -0,0 +1,102 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
+import org.jgrapht.Graphs;
+
+import java.util.*;
+
+// one level of a multilevel hierarchy: a network contracted along a heavy-edge matching. every coarse node stands for
+// one or two fine nodes and the weight of a coarse edge is the number of fine edges it represents
+class Coarsening {
+    final UndirectedNetwork fine, coarse;
+    final Map<Node,List<Node>> children = new HashMap<>();
+    final Map<Edge,Integer> weights = new HashMap<>();
+
+    private Coarsening(UndirectedNetwork fine) {
+        this.fine = fine;
+        this.coarse = new UndirectedNetwork();
+    }
+
+    // fine_weights holds the edge weights of fine, edges which are missing weigh 1
+    static Coarsening coarsen(UndirectedNetwork fine, Map<Edge,Integer> fine_weights, int level, Random rand) {
+        Coarsening c = new Coarsening(fine);
+        Map<Node,Node> parent = new HashMap<>();
+
+        // visit nodes from low to high degree (random among equal degrees) and match each unmatched node with the
+        // unmatched neighbor behind its heaviest edge, preferring low degree neighbors on ties so hubs are not all
+        // swallowed by their first visitor. ordering by degree makes similar networks coarsen similarly
+        List<Node> order = new ArrayList<>(fine.vertexSet());
+        Collections.shuffle(order, rand);
+        order.sort(Comparator.comparingInt(fine::degreeOf));
+        Map<Node,Node> mates = new HashMap<>();
+        for(Node u : order) {
+            if(mates.containsKey(u)) continue;
+            Node mate = null;
+            int mate_weight = 0;
+            for(Edge e : fine.edgesOf(u)) {
+                Node w = Graphs.getOppositeVertex(fine, e, u);
+                if(mates.containsKey(w)) continue;
+                int weight = fine_weights.getOrDefault(e, 1);
+                if(mate == null || weight > mate_weight || (weight == mate_weight && fine.degreeOf(w) < fine.degreeOf(mate))) {
+                    mate = w;
+                    mate_weight = weight;
+                }
+            }
+            if(mate != null) {
+                mates.put(u, mate);
+                mates.put(mate, u);
+            }
+        }
+
+        // in hub dominated networks most leaves stay unmatched once their hub is taken. when less than half of the nodes
+        // are matched, unmatched nodes which share a neighbor are paired up as well (two-hop matching)
+        for(Node h : mates.size() < order.size() / 2 ? order : Collections.<Node>emptyList()) {
+            Node pending = null;
+            for(Edge e : fine.edgesOf(h)) {
+                Node w = Graphs.getOppositeVertex(fine, e, h);
+                if(mates.containsKey(w)) continue;
+                if(pending == null) {
+                    pending = w;
+                } else {
+                    mates.put(pending, w);
+                    mates.put(w, pending);
+                    pending = null;
+                }
+            }
+        }
+
+        int id = 0;
+        for(Node u : order) {
+            if(parent.containsKey(u)) continue;
+            Node node = new Node("$L" + level + "_" + id++);
+            c.coarse.addVertex(node);
+            List<Node> kids = new ArrayList<>(2);
+            kids.add(u);
+            parent.put(u, node);
+            Node mate = mates.get(u);
+            if(mate != null) {
+                kids.add(mate);
+                parent.put(mate, node);
+            }
+            // the child of highest degree comes first, it is projected to the first of the two fine positions
+            kids.sort(Comparator.comparingInt(fine::degreeOf).reversed());
+            c.children.put(node, kids);
+        }
+
+        for(Edge e : fine.edgeSet()) {
+            Node a = parent.get(e.getSource());
+            Node b = parent.get(e.getTarget());
+            if(a == b) continue;
+            Edge coarse_edge = c.coarse.getEdge(a, b);
+            if(coarse_edge == null) {
+                coarse_edge = new Edge(a, b);
+                c.coarse.addEdge(a, b, coarse_edge);
+            }
+            c.weights.merge(coarse_edge, fine_weights.getOrDefault(e, 1), Integer::sum);
+        }
+
+        return c;
+    }
+}
@@ -0,0 +1,54 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// aligns the nodes of equal rank when every network is ordered by a degree signature: the degree, then the histogram
+// of neighbor degrees over power of two bins, compared from the highest bin down. among nodes of equal degree this
+// puts those with similar neighborhoods next to each other, where plain degree order leaves them in input order.
+// signatures are computed in parallel over the nodes, and the networks are ordered in parallel
+public class DegreeSignatureInitializer implements Initializer {
+    private static final int BINS = 20;
+
+    @Override
+    public List<List<Node>> initialize(List<? extends Graph<Node,Edge>> networks) {
+        return networks.parallelStream().map(DegreeSignatureInitializer::order).collect(Collectors.toList());
+    }
+
+    // the nodes of network in descending signature order, equal signatures keep the vertex order
+    static List<Node> order(Graph<Node,Edge> network) {
+        List<Node> nodes = new ArrayList<>(network.vertexSet());
+        int[][] signatures = new int[nodes.size()][];
+        IntStream.range(0, nodes.size()).parallel().forEach(k -> signatures[k] = signature(network, nodes.get(k)));
+
+        Integer[] order = new Integer[nodes.size()];
+        for(int k = 0; k < order.length; ++k) order[k] = k;
+        Arrays.parallelSort(order, (a, b) -> compare(signatures[b], signatures[a]));
+        return Arrays.stream(order).map(nodes::get).collect(Collectors.toList());
+    }
+
+    // signature[0] is the degree and signature[1 + b] the number of neighbors whose degree has its highest bit at
+    // BINS - 1 - b, so lexicographic order compares the heaviest neighbors first
+    static int[] signature(Graph<Node,Edge> network, Node u) {
+        int[] signature = new int[BINS + 1];
+        for(Edge e : network.edgesOf(u)) {
+            int degree = network.edgesOf(Graphs.getOppositeVertex(network, e, u)).size();
+            signature[BINS - Math.min(BINS - 1, 31 - Integer.numberOfLeadingZeros(degree))]++;
+        }
+        signature[0] = network.edgesOf(u).size();
+        return signature;
+    }
+
+    private static int compare(int[] a, int[] b) {
+        for(int x = 0; x < a.length; ++x) {
+            if(a[x] != b[x]) return Integer.compare(a[x], b[x]);
+        }
+        return 0;
+    }
+}
@@ -1,278 +1,211 @@
 package dk.sdu.compbio.faithmcs.alg;
 
-import com.google.common.collect.Sets;
 import dk.sdu.compbio.faithmcs.DirectedAlignment;
-import dk.sdu.compbio.faithmcs.DirectedEdgeMatrix;
+import dk.sdu.compbio.faithmcs.EdgeMatrixFactory;
+import dk.sdu.compbio.faithmcs.EdgeMatrixType;
 import dk.sdu.compbio.faithmcs.network.DirectedNetwork;
 import dk.sdu.compbio.faithmcs.network.Edge;
 import dk.sdu.compbio.faithmcs.network.Node;
-import org.jgrapht.alg.DirectedNeighborIndex;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.*;
 
-public class DirectedIteratedLocalSearch implements IteratedLocalSearch {
-    private final int n, M;
-    private final List<DirectedNetwork> networks;
-    private float perturbation_amount;
-
-    private final List<DirectedNeighborIndex<Node,Edge>> indices;
-    private final List<List<Node>> nodes;
-    private final DirectedEdgeMatrix edges;
-    private final int[][] best_positions;
-    private int quality, best_quality;
-    private final Random rand;
-
-    public DirectedIteratedLocalSearch(List<DirectedNetwork> networks, float perturbation_amount) {
-        this.networks = networks;
-        this.perturbation_amount = perturbation_amount;
-
-        n = networks.size();
-        M = networks.stream().mapToInt(v -> v.vertexSet().size()).max().getAsInt();
-
-        indices = new ArrayList<>();
-
-        int fid = 0;
-        for(DirectedNetwork network : networks) {
-            while(network.vertexSet().size() < M) {
-                Node fake_node = new Node("$fake$" + fid++, true);
-                network.addVertex(fake_node);
-            }
-
-            indices.add(new DirectedNeighborIndex<>(network));
-        }
-
-        nodes = networks.stream()
-                .map(network -> new ArrayList<>(network.vertexSet()))
-                .collect(Collectors.toList());
-
-        for(int i = 0; i < n; ++i) {
-            nodes.get(i).sort(Comparator.comparingInt(networks.get(i)::outDegreeOf).reversed());
-            int pos = 0;
-            for(Node node : nodes.get(i)) {
-                node.setPosition(pos++);
-            }
-        }
-
-        edges = new DirectedEdgeMatrix(networks);
-        rand = new Random();
+// nodes are in out-degree order
+public class DirectedIteratedLocalSearch extends AbstractIteratedLocalSearch<DirectedNetwork,DirectedAlignment> {
+    public DirectedIteratedLocalSearch(List<DirectedNetwork> networks, float perturbation_amount, long random_seed) {
+        this(networks, perturbation_amount, random_seed, EdgeMatrixType.DENSE);
+    }
 
-        best_positions = new int[n][M];
-        copyPositions(nodes, best_positions);
-        best_quality = edges.countEdges();
+    public DirectedIteratedLocalSearch(List<DirectedNetwork> networks, float perturbation_amount, long random_seed, EdgeMatrixFactory matrix_factory) {
+        super(networks, perturbation_amount, random_seed, matrix_factory, true);
     }
 
     @Override
-    public void run(int max_nonimproving, int max_num_steps) {
-        throw new UnsupportedOperationException();
-        /* int nonimproving = 0;
-        while(nonimproving < max_nonimproving) {
-            nonimproving++;
-            if(step()) {
-                nonimproving = 0;
-            }
-            System.err.println(String.format("current: %d edges, best: %d edges", quality, best_quality));
-            } */
+    protected int degree(DirectedNetwork network, Node u) {
+        return network.outDegreeOf(u);
     }
 
+    // successors and predecessors share one array: the successors of node k in network i are
+    // adjacency[i][offsets[i][2k]] .. adjacency[i][offsets[i][2k+1]-1] and its predecessors follow up to
+    // offsets[i][2k+2]-1. both lists are sorted
     @Override
-    public boolean step() {
-        // perturbation step
-        int count = Math.round(M * perturbation_amount);
-        for(int i = 1; i < n; ++i) {
-            for(int rep = 0; rep < count; ++rep) {
-                int j = rand.nextInt(M);
-                int k;
-                do k = rand.nextInt(M); while(k == j);
-                swap(networks.get(i), indices.get(i), nodes.get(i).get(j), nodes.get(i).get(k));
+    protected void index(int i, Map<Node,Integer> index) {
+        DirectedNetwork network = networks.get(i);
+        List<Node> node_list = nodes.get(i);
+        offsets[i] = new int[2 * node_list.size() + 1];
+        adjacency[i] = new int[2 * network.edgeSet().size()];
+        int next = 0;
+        for(int k = 0; k < node_list.size(); ++k) {
+            Node u = node_list.get(k);
+            offsets[i][2*k] = next;
+            for(Edge e : network.outgoingEdgesOf(u)) {
+                adjacency[i][next++] = index.get(e.getTarget());
             }
-        }
-
-        // local search step
-        boolean repeat = true;
-        while(repeat) {
-            repeat = false;
-            for(int i = 1; i < n; ++i) {
-                for(int j = 0; j < M-1; ++j) {
-                    int finalI = i;
-                    int finalJ = j;
-
-                    List<Integer> dts = IntStream.range(j+1, M)
-                            .parallel()
-                            .mapToObj(k -> delta(networks.get(finalI), indices.get(finalI), nodes.get(finalI).get(finalJ), nodes.get(finalI).get(k)))
-                            .collect(Collectors.toList());
-
-                    Integer best = IntStream.range(j+1, M)
-                            .parallel()
-                            .boxed()
-                            .max(Comparator.comparingInt(k -> dts.get(k-(finalJ+1)))).get();
-
-                    int dt = dts.get(best-(j+1));
-
-                    if(dt > 0) {
-                        repeat = true;
-                        swap(networks.get(i), indices.get(i), nodes.get(i).get(j), nodes.get(i).get(best));
-                    }
-                }
+            Arrays.sort(adjacency[i], offsets[i][2*k], next);
+            offsets[i][2*k+1] = next;
+            for(Edge e : network.incomingEdgesOf(u)) {
+                adjacency[i][next++] = index.get(e.getSource());
             }
+            Arrays.sort(adjacency[i], offsets[i][2*k+1], next);
         }
-
-        // count edges
-        quality = edges.countEdges();
-        if(quality > best_quality) {
-            best_quality = quality;
-            copyPositions(nodes, best_positions);
-            return true;
-        }
-        return false;
+        offsets[i][2 * node_list.size()] = next;
     }
 
-    private void copyPositions(List<List<Node>> nodes, int[][] positions) {
-        for(int i = 0; i < nodes.size(); ++i) {
-            for(int j = 0; j < nodes.get(i).size(); ++j) {
-                positions[i][j] = nodes.get(i).get(j).getPosition();
-            }
-        }
+    @Override
+    protected int delta(int g, int u, int p) {
+        return delta(g, u, p, false);
     }
 
-    private int delta(DirectedNetwork network, DirectedNeighborIndex<Node,Edge> index, Node u, Node v) {
-        int delta = 0;
-
-        int i = u.getPosition();
-        int j = v.getPosition();
-
-        for(Node w : Sets.difference(index.successorsOf(u), index.successorsOf(v))) {
-            if(w != v) {
-                int l = w.getPosition();
-                delta -= 2 * edges.get(i, l) - 1;
-                delta += 2 * edges.get(j, l) + 1;
-            }
-        }
-
-        for(Node w : Sets.difference(index.successorsOf(v), index.successorsOf(u))) {
-            if(w != u) {
-                int l = w.getPosition();
-                delta -= 2 * edges.get(j, l) - 1;
-                delta += 2 * edges.get(i, l) + 1;
-            }
-        }
-
-        for(Node w : Sets.difference(index.predecessorsOf(u), index.predecessorsOf(v))) {
-            if(w != v) {
-                int l = w.getPosition();
-                delta -= 2 * edges.get(l, i) - 1;
-                delta += 2 * edges.get(l, j) + 1;
-            }
-        }
+    @Override
+    protected int thresholdDelta(int g, int u, int p) {
+        return delta(g, u, p, true);
+    }
 
-        for(Node w : Sets.difference(index.predecessorsOf(v), index.predecessorsOf(u))) {
-            if(w != u) {
-                int l = w.getPosition();
-                delta -= 2 * edges.get(l, j) - 1;
-                delta += 2 * edges.get(l, i) + 1;
-            }
-        }
+    // change in objective when moving node u to position p, swapping it with the node v at p (if p is not padding).
+    // the objective is the sum of squares, or the number of cells conserved in at least threshold networks if
+    // thresholded is set
+    private int delta(int g, int u, int p, boolean thresholded) {
+        int v = occupants[g][p];
+        int i = positions[g][u];
+        int j = p;
 
-        boolean has_uv = network.containsEdge(u, v);
-        boolean has_vu = network.containsEdge(v, u);
+        int delta = moveNeighbors(g, u, v, i, j, true, false, thresholded) + moveNeighbors(g, u, v, i, j, false, false, thresholded);
+        if(v == -1) return delta;
 
+        // an edge between u and v turns around, unless it is reciprocal
+        boolean has_uv = hasEdge(g, u, v);
+        boolean has_vu = hasEdge(g, v, u);
         if(has_uv && !has_vu) {
-            delta -= 2 * edges.get(i, j) - 1;
-            delta += 2 * edges.get(j, i) + 1;
-        }
-        if(!has_uv && has_vu) {
-            delta -= 2 * edges.get(j, i) - 1;
-            delta += 2 * edges.get(i, j) + 1;
+            delta += cellDelta(edges.get(i, j), edges.get(j, i), thresholded);
+        } else if(!has_uv && has_vu) {
+            delta += cellDelta(edges.get(j, i), edges.get(i, j), thresholded);
         }
-
         return delta;
     }
 
-    private void swap(DirectedNetwork network, DirectedNeighborIndex<Node,Edge> index, Node u, Node v) {
-        int i = u.getPosition();
-        int j = v.getPosition();
+    // change in objective when one edge moves from a cell holding from to a cell holding to
+    private int cellDelta(int from, int to, boolean thresholded) {
+        if(!thresholded) return 2 * (to - from) + 2;
+        return (to == threshold - 1 ? 1 : 0) - (from == threshold ? 1 : 0);
+    }
 
-        for(Node w : Sets.difference(index.successorsOf(u), index.successorsOf(v))) {
-            if(w != v) {
-                int l = w.getPosition();
-                edges.decrement(i, l);
-                edges.increment(j, l);
+    // moves node u to position p. the node v at p (if p is not padding) takes the old position of u
+    @Override
+    protected void swap(int g, int u, int p) {
+        int v = occupants[g][p];
+        int i = positions[g][u];
+        int j = p;
+
+        moveNeighbors(g, u, v, i, j, true, true, false);
+        moveNeighbors(g, u, v, i, j, false, true, false);
+        if(v != -1) {
+            boolean has_uv = hasEdge(g, u, v);
+            boolean has_vu = hasEdge(g, v, u);
+            if(has_uv && !has_vu) {
+                edges.decrement(i, j);
+                edges.increment(j, i);
+            } else if(!has_uv && has_vu) {
+                edges.decrement(j, i);
+                edges.increment(i, j);
             }
         }
 
-        for(Node w : Sets.difference(index.successorsOf(v), index.successorsOf(u))) {
-            if(w != u) {
-                int l = w.getPosition();
-                edges.decrement(j, l);
-                edges.increment(i, l);
-            }
-        }
+        move(g, u, p);
+    }
 
-        for(Node w : Sets.difference(index.predecessorsOf(u), index.predecessorsOf(v))) {
-            if(w != v) {
-                int l = w.getPosition();
-                edges.decrement(l, i);
-                edges.increment(l, j);
-            }
-        }
+    // walks the sorted successor (out) or predecessor lists of u at position i and v at position j. the edges of
+    // neighbors of only one of them move to the other position, common neighbors and the edges between u and v are left
+    // alone. returns the change in objective (see delta()), or applies the moves to the edge matrix if apply is set
+    private int moveNeighbors(int g, int u, int v, int i, int j, boolean out, boolean apply, boolean thresholded) {
+        int[] adj = adjacency[g];
+        int[] off = offsets[g];
+        int[] pos = positions[g];
+        int side = out ? 0 : 1;
 
-        for(Node w : Sets.difference(index.predecessorsOf(v), index.predecessorsOf(u))) {
-            if(w != u) {
-                int l = w.getPosition();
-                edges.decrement(l, j);
-                edges.increment(l, i);
+        int delta = 0;
+        int x = off[2*u+side], x_end = off[2*u+side+1];
+        int y = v == -1 ? 0 : off[2*v+side], y_end = v == -1 ? 0 : off[2*v+side+1];
+        while(x < x_end || y < y_end) {
+            int from, to, w;
+            if(y == y_end || (x < x_end && adj[x] < adj[y])) {
+                w = adj[x++];
+                if(w == v) continue;
+                from = i;
+                to = j;
+            } else if(x == x_end || adj[x] > adj[y]) {
+                w = adj[y++];
+                if(w == u) continue;
+                from = j;
+                to = i;
+            } else {
+                x++;
+                y++;
+                continue;
             }
-        }
-
-        boolean has_uv = network.containsEdge(u, v);
-        boolean has_vu = network.containsEdge(v, u);
 
-        if(has_uv && !has_vu) {
-            edges.decrement(i, j);
-            edges.increment(j, i);
-        }
-        else if(!has_uv && has_vu) {
-            edges.decrement(j, i);
-            edges.increment(i, j);
+            int l = pos[w];
+            if(apply) {
+                if(out) {
+                    edges.decrement(from, l);
+                    edges.increment(to, l);
+                } else {
+                    edges.decrement(l, from);
+                    edges.increment(l, to);
+                }
+            } else if(out) {
+                delta += cellDelta(edges.get(from, l), edges.get(to, l), thresholded);
+            } else {
+                delta += cellDelta(edges.get(l, from), edges.get(l, to), thresholded);
+            }
         }
+        return delta;
+    }
 
-        u.setPosition(j);
-        v.setPosition(i);
+    // probes the sorted successors of a, a few comparisons even for hubs
+    private boolean hasEdge(int g, int a, int b) {
+        return Arrays.binarySearch(adjacency[g], offsets[g][2*a], offsets[g][2*a+1], b) >= 0;
     }
 
+    // edges out of u count at cells (p, l), edges into u at cells (l, p)
     @Override
-    public DirectedAlignment getAlignment() {
-        // copy best solution back into nodes
-        for(int i = 0; i < n; ++i) {
-            for(int j = 0; j < M; ++j) {
-                nodes.get(i).get(j).setPosition(best_positions[i][j]);
-            }
+    protected int unconserved(int g, int u, int p) {
+        int unconserved = 0;
+        for(int x = offsets[g][2*u]; x < offsets[g][2*u+1]; ++x) {
+            if(edges.get(p, positions[g][adjacency[g][x]]) < threshold) unconserved++;
         }
-
-        // Sort nodes on position to obtain alignment
-        for(List<Node> node_list : nodes) {
-            node_list.sort(Comparator.comparingInt(Node::getPosition));
+        for(int x = offsets[g][2*u+1]; x < offsets[g][2*u+2]; ++x) {
+            if(edges.get(positions[g][adjacency[g][x]], p) < threshold) unconserved++;
         }
-
-        return new DirectedAlignment(nodes, networks);
+        return unconserved;
     }
 
+    // the keys are i * M + j for an edge from position i to position j
     @Override
-    public int getCurrentNumberOfEdges() {
-        return quality;
+    protected long[] cellKeys(int g) {
+        long[] cells = new long[adjacency[g].length / 2];
+        int size = 0;
+        for(int a = 0; a < positions[g].length; ++a) {
+            for(int x = offsets[g][2*a]; x < offsets[g][2*a+1]; ++x) {
+                cells[size++] = (long)positions[g][a] * M + positions[g][adjacency[g][x]];
+            }
+        }
+        Arrays.sort(cells);
+        return cells;
     }
 
+    // visits every edge a -> b once
     @Override
-    public int getBestNumberOfEdges() {
-        return best_quality;
+    protected void forEachEdge(EdgeConsumer consumer) {
+        for(int g = 0; g < n; ++g) {
+            for(int a = 0; a < positions[g].length; ++a) {
+                for(int x = offsets[g][2*a]; x < offsets[g][2*a+1]; ++x) {
+                    consumer.accept(g, a, adjacency[g][x]);
+                }
+            }
+        }
     }
 
     @Override
-    public void setPerturbationAmount(float a) {
-        this.perturbation_amount = a;
+    protected DirectedAlignment newAlignment(List<List<Node>> alignment) {
+        return new DirectedAlignment(alignment, networks);
     }
 }
@@ -0,0 +1,13 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+
+import java.util.List;
+
+// computes a starting alignment for IteratedLocalSearch.setAlignment(). result.get(i).get(p) is the node of network i
+// at position p, or null
+public interface Initializer {
+    List<List<Node>> initialize(List<? extends Graph<Node,Edge>> networks);
+}
@@ -0,0 +1,131 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.io.AlignmentReader;
+import dk.sdu.compbio.faithmcs.network.io.AlignmentWriter;
+import dk.sdu.compbio.faithmcs.network.io.ImportException;
+import org.jgrapht.Graph;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.stream.Stream;
+
+// island model: several processes (possibly on different hosts) run their own iterated local search on the same
+// networks and share a directory. every migration_interval steps an island publishes its best alignment there and
+// continues from the best alignment published by any other island if that one is better than its own.
+//
+// a migrant file starts with a header line "score <edges> <networks>" followed by the alignment table that
+// AlignmentWriter writes and AlignmentReader reads. nodes are matched by label, so the islands only need to read the
+// same network files. files are written to a temporary name and renamed, so readers never see half a file
+public class IslandSearch {
+    private static final String SUFFIX = ".aln";
+
+    private final IteratedLocalSearch search;
+    private final List<? extends Graph<Node,Edge>> networks;
+    private final Path directory;
+    private final String name;
+    private final int migration_interval;
+    private int published = -1;
+
+    public IslandSearch(IteratedLocalSearch search, List<? extends Graph<Node,Edge>> networks, Path directory, String name, int migration_interval) {
+        this.search = search;
+        this.directory = directory;
+        this.name = name;
+        this.migration_interval = migration_interval;
+        this.networks = networks;
+    }
+
+    // runs the search with a migration after every migration_interval steps
+    public void run(int max_nonimproving, int max_num_steps) {
+        System.err.println(String.format("island %s migrating through %s every %d steps", name, directory, migration_interval));
+        search.setStepHook(this::migrate);
+        try {
+            search.run(max_nonimproving, max_num_steps);
+        } finally {
+            search.setStepHook(null);
+        }
+        publish();
+    }
+
+    // an immigrant counts as an improvement
+    private boolean migrate(int num_steps) {
+        if(num_steps % migration_interval != 0) return false;
+        publish();
+        return immigrate();
+    }
+
+    // writes the best alignment of this island unless it was already published. migration is best effort, a failed
+    // write is logged and retried at the next migration
+    private void publish() {
+        AlignmentSnapshot snapshot = search.getSnapshot();
+        int score = snapshot.getNumberOfEdges();
+        if(score == published) return;
+
+        Path tmp = directory.resolve("." + name + SUFFIX + ".tmp");
+        try {
+            AlignmentWriter.write(snapshot.getAlignment().getAlignment(), tmp.toFile(), String.format("score %d %d", score, networks.size()));
+            Files.move(tmp, directory.resolve(name + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            System.err.println(String.format("island %s could not publish: %s", name, e.getMessage()));
+            return;
+        }
+        published = score;
+    }
+
+    // continues from the best migrant of the other islands if it beats the best alignment of this island
+    private boolean immigrate() {
+        Path best = null;
+        int best_score = search.getBestNumberOfEdges();
+        try(Stream<Path> files = Files.list(directory)) {
+            for(Path file : (Iterable<Path>)files::iterator) {
+                String file_name = file.getFileName().toString();
+                if(!file_name.endsWith(SUFFIX) || file_name.startsWith(".") || file_name.equals(name + SUFFIX)) continue;
+                int score = readScore(file);
+                if(score > best_score) {
+                    best = file;
+                    best_score = score;
+                }
+            }
+        } catch(IOException | UncheckedIOException e) {
+            System.err.println(String.format("island %s could not list %s: %s", name, directory, e.getMessage()));
+            return false;
+        }
+        if(best == null) return false;
+
+        List<List<Node>> alignment = readAlignment(best);
+        if(alignment == null) return false;
+        search.setAlignment(alignment);
+        System.err.println(String.format("island %s imported %s: %d edges", name, best.getFileName(), search.getBestNumberOfEdges()));
+        // the migrant is our own best now, there is no point in publishing it again
+        published = search.getBestNumberOfEdges();
+        return true;
+    }
+
+    // the score in the header of a migrant file, or -1 if it cannot be read or was made for a different number of networks
+    private int readScore(Path file) {
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String[] header = reader.readLine().split(" ");
+            if(!header[0].equals("score") || Integer.parseInt(header[2]) != networks.size()) return -1;
+            return Integer.parseInt(header[1]);
+        } catch(IOException | RuntimeException e) {
+            // the file might have been replaced between listing and opening it
+            return -1;
+        }
+    }
+
+    // the table after the header, or null if it cannot be read
+    private List<List<Node>> readAlignment(Path file) {
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            reader.readLine();
+            return AlignmentReader.read(networks, reader, file.toString());
+        } catch(IOException | ImportException e) {
+            System.err.println(String.format("island %s could not read %s: %s", name, file.getFileName(), e.getMessage()));
+            return null;
+        }
+    }
+}
@@ -1,12 +1,39 @@
 package dk.sdu.compbio.faithmcs.alg;
 
 import dk.sdu.compbio.faithmcs.Alignment;
+import dk.sdu.compbio.faithmcs.network.Node;
+
+import java.util.List;
+import java.util.Map;
 
 public interface IteratedLocalSearch {
     boolean step();
     void run(int max_nonimproving, int max_num_steps);
     Alignment getAlignment();
+    // the best alignment so far. unlike getAlignment() it leaves the nodes alone, so other threads may call it and
+    // export the result while the search runs
+    AlignmentSnapshot getSnapshot();
     int getCurrentNumberOfEdges();
     int getBestNumberOfEdges();
     void setPerturbationAmount(float a);
+    void setAlignment(List<List<Node>> alignment);
+    void setMaxLocalSearchPasses(int passes);
+    // optimise and report the number of edges conserved in at least n - exceptions networks instead of all n
+    void setExceptions(int exceptions);
+    // number of local search passes of the last step
+    int getLocalSearchPasses();
+    void setPerturbationScheduler(PerturbationScheduler scheduler);
+    void setPerturbationStrategy(PerturbationStrategy strategy);
+    // null for none
+    void setStepHook(StepHook hook);
+    // metropolis moves at the given temperature, see ParallelTempering. returns the number of moves made
+    int anneal(int moves, double temperature);
+    // the sum of squares objective of the current alignment
+    long getEnergy();
+    // heap bytes of the search state and the edge matrix, keyed like the estimates of MemoryPlan
+    Map<String,Long> getMemoryUsage();
+    // run the local search passes over the networks concurrently instead of one network after another
+    void setConcurrentNetworks(boolean concurrent_networks);
+    // concurrent passes give the same result on any number of threads, at the cost of a barrier per node
+    void setDeterministic(boolean deterministic);
 }
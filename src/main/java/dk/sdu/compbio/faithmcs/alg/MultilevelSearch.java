@@ -0,0 +1,132 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.EdgeMatrixFactory;
+import dk.sdu.compbio.faithmcs.MemoryPlan;
+import dk.sdu.compbio.faithmcs.UndirectedAlignment;
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+// multilevel coarsen-align-refine: every network is repeatedly contracted along heavy-edge matchings until the largest
+// one has at most coarsest_size nodes, the coarsest networks are aligned by the iterated local search, and the alignment
+// is projected back level by level. each level is refined by at most refine_passes local search passes restricted to
+// local candidates, so the cost per level stays roughly linear in its number of edges. the coarsest search gets all of
+// the search settings, the refinements only the exceptions
+public class MultilevelSearch {
+    // stop coarsening when a level shrinks the largest network by less than 10%
+    private static final double MIN_REDUCTION = 0.9;
+
+    private final List<UndirectedNetwork> networks;
+    private final float perturbation_amount;
+    private final long random_seed;
+    private final EdgeMatrixFactory matrix_factory;
+    private final boolean vectorize;
+    private final SearchSettings settings;
+    private final int coarsest_size, refine_passes;
+    private Map<String,Long> memory_usage = new HashMap<>();
+
+    public MultilevelSearch(List<UndirectedNetwork> networks, float perturbation_amount, long random_seed, EdgeMatrixFactory matrix_factory, boolean vectorize, SearchSettings settings, int coarsest_size, int refine_passes) {
+        this.networks = networks;
+        this.perturbation_amount = perturbation_amount;
+        this.random_seed = random_seed;
+        this.matrix_factory = matrix_factory;
+        this.vectorize = vectorize;
+        this.settings = settings;
+        this.coarsest_size = coarsest_size;
+        this.refine_passes = refine_passes;
+    }
+
+    public UndirectedAlignment run(int max_nonimproving, int max_num_steps) {
+        Random rand = random_seed == -1 ? new Random() : new Random(random_seed);
+
+        // hierarchy.get(l).get(i) contracts network i from level l to level l+1
+        List<List<Coarsening>> hierarchy = new ArrayList<>();
+        List<UndirectedNetwork> current = networks;
+        List<Map<Edge,Integer>> weights = networks.stream().map(g -> new HashMap<Edge,Integer>()).collect(Collectors.toList());
+        while(maxSize(current) > coarsest_size) {
+            List<Coarsening> level = new ArrayList<>();
+            for(int i = 0; i < current.size(); ++i) {
+                level.add(Coarsening.coarsen(current.get(i), weights.get(i), hierarchy.size() + 1, rand));
+            }
+            List<UndirectedNetwork> coarse = level.stream().map(c -> c.coarse).collect(Collectors.toList());
+            if(maxSize(coarse) > MIN_REDUCTION * maxSize(current)) break;
+
+            hierarchy.add(level);
+            current = coarse;
+            weights = level.stream().map(c -> c.weights).collect(Collectors.toList());
+            System.err.println(String.format("coarsened to level %d: nodes %s, edges %s", hierarchy.size(),
+                    current.stream().map(g -> Integer.toString(g.vertexSet().size())).collect(Collectors.joining("/")),
+                    current.stream().map(g -> Integer.toString(g.edgeSet().size())).collect(Collectors.joining("/"))));
+        }
+
+        UndirectedIteratedLocalSearch search = new UndirectedIteratedLocalSearch(current, perturbation_amount, random_seed, matrix_factory, vectorize);
+        settings.configure(search);
+        settings.initialize(search, current);
+        search.run(max_nonimproving, max_num_steps);
+
+        // one level at a time: the search of a level is dropped before the next one allocates
+        List<Map<String,Long>> levels = new ArrayList<>();
+        for(int l = hierarchy.size() - 1; l >= 0; --l) {
+            List<List<Node>> alignment = project(hierarchy.get(l), search.getAlignment().getAlignment());
+            List<UndirectedNetwork> fine = hierarchy.get(l).stream().map(c -> c.fine).collect(Collectors.toList());
+
+            levels.add(search.getMemoryUsage());
+            search = null;
+            search = new UndirectedIteratedLocalSearch(fine, 0, random_seed, matrix_factory, vectorize);
+            search.setExceptions(settings.getExceptions());
+            search.setAlignment(alignment);
+            int projected = search.getBestNumberOfEdges();
+            search.setLocalCandidates(true);
+            search.setMaxLocalSearchPasses(refine_passes);
+            search.step();
+            System.err.println(String.format("refined level %d: projected %d edges, refined %d edges", l, projected, search.getBestNumberOfEdges()));
+        }
+
+        memory_usage = MemoryPlan.peakUsage(levels, 1, search.getMemoryUsage());
+        return search.getAlignment();
+    }
+
+    // the structures of the largest level, after run()
+    public Map<String,Long> getMemoryUsage() {
+        return memory_usage;
+    }
+
+    // every coarse position expands into two fine positions holding the first and second child of each coarse node.
+    // rows left with fewer than two nodes align nothing and are dropped, setAlignment() places those nodes freely
+    private static List<List<Node>> project(List<Coarsening> level, List<List<Node>> coarse_alignment) {
+        int n = level.size();
+        List<List<Node>> alignment = new ArrayList<>();
+        for(int i = 0; i < n; ++i) {
+            alignment.add(new ArrayList<>());
+        }
+
+        for(int p = 0; p < coarse_alignment.get(0).size(); ++p) {
+            for(int c = 0; c < 2; ++c) {
+                Node[] row = new Node[n];
+                int real = 0;
+                for(int i = 0; i < n; ++i) {
+                    Node coarse = coarse_alignment.get(i).get(p);
+                    if(coarse == null) continue;
+                    List<Node> kids = level.get(i).children.get(coarse);
+                    if(c < kids.size()) {
+                        row[i] = kids.get(c);
+                        real++;
+                    }
+                }
+                if(real < 2) continue;
+                for(int i = 0; i < n; ++i) {
+                    alignment.get(i).add(row[i]);
+                }
+            }
+        }
+
+        return alignment;
+    }
+
+    private static int maxSize(List<UndirectedNetwork> networks) {
+        return networks.stream().mapToInt(g -> g.vertexSet().size()).max().getAsInt();
+    }
+}
@@ -0,0 +1,89 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.Alignment;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+// replica exchange: every replica is a search of its own (with its own edge matrix) at one of a geometric ladder of
+// temperatures. in a round all replicas make one sweep of metropolis moves in parallel, see IteratedLocalSearch.anneal(),
+// and then neighboring temperatures try to exchange their replicas, accepted with probability
+// exp((E_a - E_b) * (1/T_b - 1/T_a)) for the sum of squares objectives E. pairs alternate between rounds so every pair
+// gets its chance. exchanging temperatures instead of alignments is equivalent and costs nothing. the hot replicas
+// wander, the cold ones climb, and the best alignment of any replica is the result
+public class ParallelTempering {
+    private final List<IteratedLocalSearch> replicas;
+    private final double[] temperatures;
+    // at[t] is the replica at temperature t
+    private final int[] at;
+    private final int moves;
+    private final Random rand;
+
+    // moves is the number of metropolis moves per replica and round
+    public ParallelTempering(List<IteratedLocalSearch> replicas, double min_temperature, double max_temperature, int moves, long random_seed) {
+        if(min_temperature <= 0 || max_temperature < min_temperature) {
+            throw new IllegalArgumentException(String.format("Temperatures must satisfy 0 < min <= max: %f, %f", min_temperature, max_temperature));
+        }
+        this.replicas = replicas;
+        this.moves = moves;
+        int K = replicas.size();
+        temperatures = new double[K];
+        at = new int[K];
+        for(int t = 0; t < K; ++t) {
+            temperatures[t] = K == 1 ? min_temperature : min_temperature * Math.pow(max_temperature / min_temperature, (double)t / (K - 1));
+            at[t] = t;
+        }
+        rand = random_seed == -1 ? new Random() : new Random(random_seed);
+    }
+
+    public void run(int max_nonimproving, int max_num_steps) {
+        System.err.println(String.format("parallel tempering with %d replicas at temperatures %s, %d moves per round", replicas.size(), Arrays.toString(temperatures), moves));
+
+        int best = getBestNumberOfEdges();
+        int nonimproving = 0;
+        for(int round = 1; round <= max_num_steps && nonimproving < max_nonimproving; ++round) {
+            int[] accepted = IntStream.range(0, replicas.size()).parallel()
+                    .map(t -> replicas.get(at[t]).anneal(moves, temperatures[t]))
+                    .toArray();
+
+            long[] energy = replicas.stream().mapToLong(IteratedLocalSearch::getEnergy).toArray();
+            int exchanges = 0;
+            for(int t = round % 2; t + 1 < replicas.size(); t += 2) {
+                int a = at[t], b = at[t+1];
+                double exponent = (energy[a] - energy[b]) * (1 / temperatures[t+1] - 1 / temperatures[t]);
+                if(exponent >= 0 || rand.nextDouble() < Math.exp(exponent)) {
+                    at[t] = b;
+                    at[t+1] = a;
+                    exchanges++;
+                }
+            }
+
+            int edges = getBestNumberOfEdges();
+            nonimproving = edges > best ? 0 : nonimproving + 1;
+            best = Math.max(best, edges);
+            StringBuilder current = new StringBuilder();
+            for(int t = 0; t < replicas.size(); ++t) {
+                current.append(t == 0 ? "" : " ").append(replicas.get(at[t]).getCurrentNumberOfEdges()).append('/').append(accepted[t]);
+            }
+            System.err.println(String.format("round: %d, current/accepted by temperature: %s, exchanges: %d, best: %d edges", round, current, exchanges, best));
+        }
+    }
+
+    private IteratedLocalSearch best() {
+        return replicas.stream().max(Comparator.comparingInt(IteratedLocalSearch::getBestNumberOfEdges)).get();
+    }
+
+    public int getBestNumberOfEdges() {
+        return best().getBestNumberOfEdges();
+    }
+
+    // safe to call while the replicas run, like IteratedLocalSearch.getSnapshot()
+    public AlignmentSnapshot getSnapshot() {
+        return replicas.stream().map(IteratedLocalSearch::getSnapshot)
+                .max(Comparator.comparingInt(AlignmentSnapshot::getNumberOfEdges)).get();
+    }
+
+    public Alignment getAlignment() {
+        return best().getAlignment();
+    }
+}
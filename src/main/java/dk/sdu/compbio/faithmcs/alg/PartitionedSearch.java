@@ -0,0 +1,130 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.EdgeMatrixFactory;
+import dk.sdu.compbio.faithmcs.MemoryPlan;
+import dk.sdu.compbio.faithmcs.UndirectedAlignment;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+// partitioned alignment: every network is split into the same number of community blocks, the kth largest block (by
+// edges) of every network are aligned to each other by an independent iterated local search, and the block alignments
+// are stacked into one global alignment. edges between blocks are ignored until a final boundary repair, a bounded
+// local search over the whole networks restricted to local candidates. the block searches get all of the search
+// settings, the repair only the exceptions
+public class PartitionedSearch {
+    private final List<UndirectedNetwork> networks;
+    private final float perturbation_amount;
+    private final long random_seed;
+    private final EdgeMatrixFactory matrix_factory;
+    private final boolean vectorize;
+    private final SearchSettings settings;
+    private final int block_size, repair_passes, threads;
+    private Map<String,Long> memory_usage = new HashMap<>();
+
+    public PartitionedSearch(List<UndirectedNetwork> networks, float perturbation_amount, long random_seed, EdgeMatrixFactory matrix_factory, boolean vectorize, SearchSettings settings, int block_size, int repair_passes, int threads) {
+        this.networks = networks;
+        this.perturbation_amount = perturbation_amount;
+        this.random_seed = random_seed;
+        this.matrix_factory = matrix_factory;
+        this.vectorize = vectorize;
+        this.settings = settings;
+        this.block_size = block_size;
+        this.repair_passes = repair_passes;
+        this.threads = threads;
+    }
+
+    public UndirectedAlignment run(int max_nonimproving, int max_num_steps) {
+        Random rand = random_seed == -1 ? new Random() : new Random(random_seed);
+        int n = networks.size();
+        int M = networks.stream().mapToInt(g -> g.vertexSet().size()).max().getAsInt();
+        int num_blocks = Math.max(1, (M + block_size - 1) / block_size);
+
+        // blocks are matched across networks by rank of their number of edges
+        List<List<UndirectedNetwork>> blocks = new ArrayList<>();
+        for(UndirectedNetwork network : networks) {
+            List<UndirectedNetwork> own = Partitioning.partition(network, num_blocks, rand).blocks;
+            own.sort(Comparator.comparingInt((UndirectedNetwork g) -> g.edgeSet().size()).reversed());
+            blocks.add(own);
+        }
+        int internal = blocks.stream().flatMap(List::stream).mapToInt(g -> g.edgeSet().size()).sum();
+        int total = networks.stream().mapToInt(g -> g.edgeSet().size()).sum();
+        System.err.println(String.format("partitioned into %d blocks of at most %d nodes, %d of %d edges inside blocks", num_blocks, (M + num_blocks - 1) / num_blocks, internal, total));
+
+        // the concurrent block searches share the memory of the global matrix
+        int engines = Math.min(threads, num_blocks);
+        List<Map<String,Long>> block_usage = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<UndirectedAlignment>> futures = new ArrayList<>();
+        for(int b = 0; b < num_blocks; ++b) {
+            List<UndirectedNetwork> group = new ArrayList<>();
+            for(int i = 0; i < n; ++i) {
+                group.add(blocks.get(i).get(b));
+            }
+            long seed = random_seed == -1 ? -1 : random_seed + b;
+            EdgeMatrixFactory block_factory = matrix_factory.split(engines, group.stream().mapToLong(g -> g.edgeSet().size()).sum());
+            futures.add(pool.submit(() -> {
+                UndirectedIteratedLocalSearch search = new UndirectedIteratedLocalSearch(group, perturbation_amount, seed, block_factory, vectorize);
+                settings.configure(search);
+                settings.initialize(search, group);
+                search.run(max_nonimproving, max_num_steps);
+                block_usage.add(search.getMemoryUsage());
+                return search.getAlignment();
+            }));
+        }
+
+        List<List<Node>> alignment = new ArrayList<>();
+        for(int i = 0; i < n; ++i) {
+            alignment.add(new ArrayList<>());
+        }
+        try {
+            for(Future<UndirectedAlignment> future : futures) {
+                List<List<Node>> block_alignment = future.get().getAlignment();
+                for(int i = 0; i < n; ++i) {
+                    alignment.get(i).addAll(block_alignment.get(i));
+                }
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Block alignment failed", e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // rows beyond M hold only padding of the smaller blocks, setAlignment() places their nodes in the free rows
+        UndirectedIteratedLocalSearch search = new UndirectedIteratedLocalSearch(networks, 0, random_seed, matrix_factory, vectorize);
+        search.setExceptions(settings.getExceptions());
+        search.setAlignment(compact(alignment));
+        int before = search.getBestNumberOfEdges();
+        search.setLocalCandidates(true);
+        search.setMaxLocalSearchPasses(repair_passes);
+        search.step();
+        System.err.println(String.format("boundary repair: %d edges before, %d edges after", before, search.getBestNumberOfEdges()));
+
+        memory_usage = MemoryPlan.peakUsage(block_usage, engines, search.getMemoryUsage());
+        return search.getAlignment();
+    }
+
+    // the structures of the concurrent blocks or of the repair, whichever is larger, after run()
+    public Map<String,Long> getMemoryUsage() {
+        return memory_usage;
+    }
+
+    // drops the rows which are padding in every network, so the stacked alignment fits in M rows when the blocks allow
+    private static List<List<Node>> compact(List<List<Node>> alignment) {
+        int rows = alignment.get(0).size();
+        List<Integer> keep = new ArrayList<>();
+        for(int p = 0; p < rows; ++p) {
+            int finalP = p;
+            if(alignment.stream().anyMatch(nodes -> nodes.get(finalP) != null)) keep.add(p);
+        }
+        return alignment.stream()
+                .map(nodes -> keep.stream().map(nodes::get).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+}
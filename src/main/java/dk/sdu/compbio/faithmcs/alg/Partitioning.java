@@ -0,0 +1,120 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
+import org.jgrapht.Graphs;
+
+import java.util.*;
+
+// splits a network into a fixed number of blocks of at most capacity nodes each. communities are found by label
+// propagation and packed into the blocks whole where possible, so most edges stay inside a block
+class Partitioning {
+    private static final int MAX_PROPAGATION_ROUNDS = 20;
+
+    final List<UndirectedNetwork> blocks = new ArrayList<>();
+
+    private Partitioning() {
+    }
+
+    static Partitioning partition(UndirectedNetwork network, int num_blocks, Random rand) {
+        int capacity = (network.vertexSet().size() + num_blocks - 1) / num_blocks;
+        List<List<Node>> bins = new ArrayList<>();
+        for(int b = 0; b < num_blocks; ++b) {
+            bins.add(new ArrayList<>(capacity));
+        }
+
+        // largest communities first, each in BFS order so a community which does not fit is cut into connected pieces.
+        // every community starts in the bin with the most room and spills over into the next one with the most room
+        List<List<Node>> communities = communities(network, rand);
+        communities.sort(Comparator.comparingInt(List<Node>::size).reversed());
+        for(List<Node> community : communities) {
+            List<Node> bin = roomiest(bins);
+            for(Node u : community) {
+                if(bin.size() == capacity) bin = roomiest(bins);
+                bin.add(u);
+            }
+        }
+
+        Partitioning p = new Partitioning();
+        for(List<Node> bin : bins) {
+            UndirectedNetwork block = new UndirectedNetwork();
+            bin.forEach(block::addVertex);
+            for(Node u : bin) {
+                for(Edge e : network.edgesOf(u)) {
+                    Node w = Graphs.getOppositeVertex(network, e, u);
+                    if(block.containsVertex(w) && !block.containsEdge(u, w)) {
+                        block.addEdge(u, w, new Edge(u, w, e.getLabel()));
+                    }
+                }
+            }
+            p.blocks.add(block);
+        }
+        return p;
+    }
+
+    private static List<Node> roomiest(List<List<Node>> bins) {
+        return Collections.min(bins, Comparator.comparingInt(List::size));
+    }
+
+    // asynchronous label propagation: every node repeatedly takes the most frequent label among its neighbors (ties
+    // broken at random) until no label changes. communities are returned in BFS order from their highest degree node
+    private static List<List<Node>> communities(UndirectedNetwork network, Random rand) {
+        List<Node> order = new ArrayList<>(network.vertexSet());
+        Map<Node,Integer> label = new HashMap<>();
+        for(int k = 0; k < order.size(); ++k) {
+            label.put(order.get(k), k);
+        }
+
+        Map<Integer,Integer> counts = new HashMap<>();
+        List<Integer> ties = new ArrayList<>();
+        boolean changed = true;
+        for(int round = 0; changed && round < MAX_PROPAGATION_ROUNDS; ++round) {
+            changed = false;
+            Collections.shuffle(order, rand);
+            for(Node u : order) {
+                if(network.degreeOf(u) == 0) continue;
+                counts.clear();
+                for(Edge e : network.edgesOf(u)) {
+                    counts.merge(label.get(Graphs.getOppositeVertex(network, e, u)), 1, Integer::sum);
+                }
+                int max = Collections.max(counts.values());
+                ties.clear();
+                counts.forEach((l, c) -> { if(c == max) ties.add(l); });
+                if(ties.contains(label.get(u))) continue;
+                label.put(u, ties.get(rand.nextInt(ties.size())));
+                changed = true;
+            }
+        }
+
+        Map<Integer,List<Node>> members = new HashMap<>();
+        for(Node u : order) {
+            members.computeIfAbsent(label.get(u), l -> new ArrayList<>()).add(u);
+        }
+
+        List<List<Node>> communities = new ArrayList<>();
+        for(List<Node> community : members.values()) {
+            Node root = Collections.max(community, Comparator.comparingInt(network::degreeOf));
+            Integer l = label.get(root);
+            List<Node> bfs = new ArrayList<>(community.size());
+            Set<Node> visited = new HashSet<>();
+            // label propagation communities may be disconnected, so every unvisited member starts a new search
+            List<Node> starts = new ArrayList<>(community.size() + 1);
+            starts.add(root);
+            starts.addAll(community);
+            for(Node start : starts) {
+                if(!visited.add(start)) continue;
+                bfs.add(start);
+                for(int x = bfs.size() - 1; x < bfs.size(); ++x) {
+                    Node u = bfs.get(x);
+                    for(Edge e : network.edgesOf(u)) {
+                        Node w = Graphs.getOppositeVertex(network, e, u);
+                        if(label.get(w).equals(l) && visited.add(w)) bfs.add(w);
+                    }
+                }
+            }
+            communities.add(bfs);
+        }
+        return communities;
+    }
+}
@@ -0,0 +1,42 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+// adapts the perturbation amount between the steps of an iterated local search, following the 1/5 success rule: while
+// more than a fifth of the recent steps improve, perturbations shrink, and while fewer do, they grow. growing stops when
+// the local search already needs more than twice its usual number of passes to repair a perturbation
+public class PerturbationScheduler {
+    private static final float MIN_AMOUNT = 0.005f;
+    private static final float MAX_AMOUNT = 0.5f;
+    private static final float TARGET_RATE = 0.2f;
+    private static final float FACTOR = 1.25f;
+    // weight of the last step in the running improvement rate and number of passes
+    private static final float SMOOTHING = 0.3f;
+
+    private float amount;
+    private float rate = TARGET_RATE;
+    private float mean_passes = -1;
+
+    public PerturbationScheduler(float initial_amount) {
+        this.amount = Math.max(MIN_AMOUNT, Math.min(MAX_AMOUNT, initial_amount));
+    }
+
+    public float getPerturbationAmount() {
+        return amount;
+    }
+
+    // called after every step, sets the perturbation amount of the next step
+    public void update(IteratedLocalSearch search, boolean improved) {
+        int passes = search.getLocalSearchPasses();
+        boolean expensive = mean_passes >= 0 && passes > 2 * mean_passes;
+        rate = (1 - SMOOTHING) * rate + SMOOTHING * (improved ? 1 : 0);
+        mean_passes = mean_passes < 0 ? passes : (1 - SMOOTHING) * mean_passes + SMOOTHING * passes;
+
+        float previous = amount;
+        if(rate > TARGET_RATE || expensive) {
+            amount = Math.max(MIN_AMOUNT, amount / FACTOR);
+        } else if(rate < TARGET_RATE) {
+            amount = Math.min(MAX_AMOUNT, amount * FACTOR);
+        }
+        search.setPerturbationAmount(amount);
+        System.err.println(String.format("perturbation: %f -> %f (improvement rate %.2f, %d LSI passes, mean %.1f)", previous, amount, rate, passes, mean_passes));
+    }
+}
@@ -0,0 +1,37 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import java.util.Random;
+
+// how the perturbation phase of a step picks the positions it swaps
+public enum PerturbationStrategy {
+    // uniformly random pairs of positions
+    UNIFORM,
+    // positions drawn with probability proportional to 1 + TARGETED_BIAS * the fraction of unconserved edges of their
+    // node, so the perturbation mostly lands on poorly aligned regions instead of regions the local search would only
+    // repair. using the fraction rather than the number keeps hubs from drawing most of the perturbation
+    TARGETED;
+
+    static final int TARGETED_BIAS = 16;
+    // fixed point scale of the weights, so a fraction below 1 / TARGETED_BIAS still raises the weight
+    static final int WEIGHT_SCALE = 1 << 10;
+
+    public static PerturbationStrategy parse(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown perturbation strategy: " + name);
+        }
+    }
+
+    // draws position p with probability (cumulative[p] - cumulative[p-1]) / cumulative[M-1]
+    static int sample(long[] cumulative, Random rand) {
+        long r = (long)(rand.nextDouble() * cumulative[cumulative.length - 1]);
+        int lo = 0, hi = cumulative.length - 1;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(cumulative[mid] > r) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,279 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.EdgeMatrixFactory;
+import dk.sdu.compbio.faithmcs.MemoryPlan;
+import dk.sdu.compbio.faithmcs.UndirectedAlignment;
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+// progressive alignment of many networks: a guide tree is built by average linkage clustering on a cheap distance
+// (sizes and degree distributions), and the tree is aligned bottom up. two subtrees are merged by aligning their
+// consensus networks with a two network iterated local search, so every search only counts two networks. the consensus
+// of a subtree holds the edges of any of its members: the edges conserved by all members shrink too fast up the tree
+// to guide the merges above the leaves. independent subtrees are merged concurrently, and the merged alignment seeds
+// a joint iterated local search over all networks, which scores it by the edges conserved by all of them. the merges and
+// the joint search get the search settings, which must not allow exceptions: a merge of two consensus networks has none
+public class ProgressiveSearch {
+    private static final int DEGREE_QUANTILES = 100;
+
+    private final List<UndirectedNetwork> networks;
+    private final float perturbation_amount;
+    private final long random_seed;
+    private final EdgeMatrixFactory matrix_factory;
+    private final boolean vectorize;
+    private final SearchSettings settings;
+    private final int threads;
+    // at most one merge per pair of networks runs at a time
+    private final int concurrent_merges;
+    private final List<Map<String,Long>> merge_usage = Collections.synchronizedList(new ArrayList<>());
+    private Map<String,Long> memory_usage = new HashMap<>();
+    // order.get(i) maps the nodes of network i to their index in its vertex order
+    private final List<Map<Node,Integer>> order = new ArrayList<>();
+
+    // a subtree of the guide tree. rows.get(r)[k] is the node of network members.get(k) in row r, or null
+    private static class Cluster {
+        final List<Integer> members;
+        final List<Node[]> rows;
+
+        Cluster(List<Integer> members, List<Node[]> rows) {
+            this.members = members;
+            this.rows = rows;
+        }
+    }
+
+    // the consensus network of a cluster. row_of maps its nodes to the rows of the cluster they stand for, and
+    // degree_order lists them by the mean degree of their members
+    private static class Consensus {
+        final UndirectedNetwork network;
+        final Map<Node,Integer> row_of;
+        final List<Node> degree_order;
+
+        Consensus(UndirectedNetwork network, Map<Node,Integer> row_of, List<Node> degree_order) {
+            this.network = network;
+            this.row_of = row_of;
+            this.degree_order = degree_order;
+        }
+    }
+
+    public ProgressiveSearch(List<UndirectedNetwork> networks, float perturbation_amount, long random_seed, EdgeMatrixFactory matrix_factory, boolean vectorize, SearchSettings settings, int threads) {
+        this.networks = networks;
+        this.perturbation_amount = perturbation_amount;
+        this.random_seed = random_seed;
+        this.matrix_factory = matrix_factory;
+        this.vectorize = vectorize;
+        this.settings = settings;
+        this.threads = threads;
+        this.concurrent_merges = Math.max(1, Math.min(threads, networks.size() / 2));
+        for(UndirectedNetwork network : networks) {
+            Map<Node,Integer> index = new HashMap<>();
+            network.vertexSet().forEach(u -> index.put(u, index.size()));
+            order.add(index);
+        }
+    }
+
+    public UndirectedAlignment run(int max_nonimproving, int max_num_steps) {
+        int n = networks.size();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        // average linkage clustering. every cluster is a future of its alignment, so a merge starts as soon as both of
+        // its subtrees are aligned
+        List<List<Integer>> members = new ArrayList<>();
+        List<CompletableFuture<Cluster>> clusters = new ArrayList<>();
+        for(int i = 0; i < n; ++i) {
+            members.add(Collections.singletonList(i));
+            clusters.add(CompletableFuture.completedFuture(leaf(i)));
+        }
+        double[][] distance = distances();
+        int merge = 0;
+        while(clusters.size() > 1) {
+            int a = 0, b = 1;
+            double best = Double.MAX_VALUE;
+            for(int x = 0; x < clusters.size(); ++x) {
+                for(int y = x+1; y < clusters.size(); ++y) {
+                    double d = 0;
+                    for(int i : members.get(x)) {
+                        for(int j : members.get(y)) d += distance[i][j];
+                    }
+                    d /= members.get(x).size() * members.get(y).size();
+                    if(d < best) {
+                        best = d;
+                        a = x;
+                        b = y;
+                    }
+                }
+            }
+
+            List<Integer> merged = new ArrayList<>(members.get(a));
+            merged.addAll(members.get(b));
+            System.err.println(String.format("guide tree: merging %s and %s (distance %.3f)", members.get(a), members.get(b), best));
+            long seed = random_seed == -1 ? -1 : random_seed + merge++;
+            CompletableFuture<Cluster> future = clusters.get(a).thenCombineAsync(clusters.get(b), (x, y) -> merge(x, y, seed, max_nonimproving, max_num_steps), pool);
+            // b > a, so removing b first keeps index a valid
+            members.remove(b);
+            clusters.remove(b);
+            members.set(a, merged);
+            clusters.set(a, future);
+        }
+
+        Cluster root;
+        try {
+            root = clusters.get(0).join();
+        } catch(CompletionException e) {
+            throw new IllegalStateException("Progressive alignment failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<List<Node>> alignment = new ArrayList<>();
+        for(int i = 0; i < n; ++i) {
+            alignment.add(new ArrayList<>());
+        }
+        for(Node[] row : root.rows) {
+            for(int k = 0; k < n; ++k) {
+                alignment.get(root.members.get(k)).add(row[k]);
+            }
+        }
+
+        UndirectedIteratedLocalSearch search = new UndirectedIteratedLocalSearch(networks, perturbation_amount, random_seed, matrix_factory, vectorize);
+        settings.configure(search);
+        search.setAlignment(alignment);
+        int merged = search.getBestNumberOfEdges();
+        search.run(max_nonimproving, max_num_steps);
+        System.err.println(String.format("joint search: %d edges merged, %d edges refined", merged, search.getBestNumberOfEdges()));
+
+        memory_usage = MemoryPlan.peakUsage(merge_usage, concurrent_merges, search.getMemoryUsage());
+        return search.getAlignment();
+    }
+
+    // the structures of the concurrent merges or of the joint search, whichever is larger, after run()
+    public Map<String,Long> getMemoryUsage() {
+        return memory_usage;
+    }
+
+    private Cluster leaf(int i) {
+        List<Node[]> rows = networks.get(i).vertexSet().stream().map(u -> new Node[] { u }).collect(Collectors.toList());
+        return new Cluster(Collections.singletonList(i), rows);
+    }
+
+    // aligns the consensus networks of x and y, and joins the rows placed at the same position
+    private Cluster merge(Cluster x, Cluster y, long seed, int max_nonimproving, int max_num_steps) {
+        Consensus cx = consensus(x), cy = consensus(y);
+        List<UndirectedNetwork> pair = Arrays.asList(cx.network, cy.network);
+        long edges = pair.get(0).edgeSet().size() + pair.get(1).edgeSet().size();
+        // the concurrent merges share the memory of the global matrix
+        EdgeMatrixFactory factory = matrix_factory.split(concurrent_merges, edges);
+        UndirectedIteratedLocalSearch search = new UndirectedIteratedLocalSearch(pair, perturbation_amount, seed, factory, vectorize);
+        settings.configure(search);
+        // without an initializer a merge starts like the joint search: the rows of both sides in the degree order of
+        // their networks. the union degrees of a consensus would rank its rows differently
+        if(settings.initialize(search, pair) == null) {
+            search.setAlignment(Arrays.asList(cx.degree_order, cy.degree_order));
+        }
+        search.run(max_nonimproving, max_num_steps);
+        merge_usage.add(search.getMemoryUsage());
+        List<List<Node>> alignment = search.getAlignment().getAlignment();
+
+        List<Integer> members = new ArrayList<>(x.members);
+        members.addAll(y.members);
+        List<Node[]> rows = new ArrayList<>();
+        for(int p = 0; p < alignment.get(0).size(); ++p) {
+            Node u = alignment.get(0).get(p);
+            Node v = alignment.get(1).get(p);
+            if(u == null && v == null) continue;
+            Node[] row = new Node[members.size()];
+            if(u != null) System.arraycopy(x.rows.get(cx.row_of.get(u)), 0, row, 0, x.members.size());
+            if(v != null) System.arraycopy(y.rows.get(cy.row_of.get(v)), 0, row, x.members.size(), y.members.size());
+            rows.add(row);
+        }
+        // the search sorts nodes by degree and keeps the vertex order among equal degrees. rows follow the vertex order
+        // of their first node, so a consensus breaks ties the way its networks would in a joint search
+        rows.sort(Comparator.comparingLong(row -> rowOrder(members, row)));
+        System.err.println(String.format("merged %s and %s: %d conserved consensus edges", x.members, y.members, search.getBestNumberOfEdges()));
+        return new Cluster(members, rows);
+    }
+
+    // one node per row of the cluster with the edges of any member. a single network is its own consensus
+    private Consensus consensus(Cluster c) {
+        int k = c.members.size();
+        UndirectedNetwork consensus = new UndirectedNetwork();
+        Node[] row_nodes = new Node[c.rows.size()];
+        Map<Node,Integer> row_index = new HashMap<>();
+        List<Map<Node,Integer>> row_of = new ArrayList<>();
+        for(int m = 0; m < k; ++m) {
+            row_of.add(new HashMap<>());
+        }
+        for(int r = 0; r < c.rows.size(); ++r) {
+            row_nodes[r] = new Node("$R" + r);
+            consensus.addVertex(row_nodes[r]);
+            row_index.put(row_nodes[r], r);
+            for(int m = 0; m < k; ++m) {
+                Node u = c.rows.get(r)[m];
+                if(u != null) row_of.get(m).put(u, r);
+            }
+        }
+
+        Set<Long> pairs = new HashSet<>();
+        double[] degree = new double[c.rows.size()];
+        int[] present = new int[c.rows.size()];
+        for(int m = 0; m < k; ++m) {
+            UndirectedNetwork network = networks.get(c.members.get(m));
+            for(Map.Entry<Node,Integer> entry : row_of.get(m).entrySet()) {
+                degree[entry.getValue()] += network.degreeOf(entry.getKey());
+                present[entry.getValue()]++;
+            }
+            for(Edge e : network.edgeSet()) {
+                int r = row_of.get(m).get(e.getSource());
+                int s = row_of.get(m).get(e.getTarget());
+                if(!pairs.add((long)Math.min(r, s) * c.rows.size() + Math.max(r, s))) continue;
+                consensus.addEdge(row_nodes[r], row_nodes[s], new Edge(row_nodes[r], row_nodes[s]));
+            }
+        }
+        // the rows are in vertex order, so the stable sort breaks ties like the engine does
+        List<Node> degree_order = new ArrayList<>(Arrays.asList(row_nodes));
+        degree_order.sort(Comparator.comparingDouble((Node u) -> degree[row_index.get(u)] / present[row_index.get(u)]).reversed());
+        return new Consensus(consensus, row_index, degree_order);
+    }
+
+    private long rowOrder(List<Integer> members, Node[] row) {
+        int m = 0;
+        while(row[m] == null) m++;
+        return (long)m * Integer.MAX_VALUE + order.get(members.get(m)).get(row[m]);
+    }
+
+    // distance between two networks: the mean difference of log degrees over the degree quantiles, plus the log ratios
+    // of their numbers of nodes and edges
+    private double[][] distances() {
+        int n = networks.size();
+        double[][] quantiles = new double[n][DEGREE_QUANTILES];
+        for(int i = 0; i < n; ++i) {
+            UndirectedNetwork network = networks.get(i);
+            int[] degrees = network.vertexSet().stream().mapToInt(network::degreeOf).sorted().toArray();
+            for(int q = 0; q < DEGREE_QUANTILES; ++q) {
+                quantiles[i][q] = Math.log1p(degrees[(int)((long)q * (degrees.length - 1) / (DEGREE_QUANTILES - 1))]);
+            }
+        }
+
+        double[][] distance = new double[n][n];
+        for(int i = 0; i < n; ++i) {
+            for(int j = i+1; j < n; ++j) {
+                double d = 0;
+                for(int q = 0; q < DEGREE_QUANTILES; ++q) {
+                    d += Math.abs(quantiles[i][q] - quantiles[j][q]);
+                }
+                d /= DEGREE_QUANTILES;
+                d += Math.abs(Math.log((double)networks.get(i).vertexSet().size() / networks.get(j).vertexSet().size()));
+                d += Math.abs(Math.log((double)Math.max(1, networks.get(i).edgeSet().size()) / Math.max(1, networks.get(j).edgeSet().size())));
+                distance[i][j] = distance[j][i] = d;
+            }
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,268 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.QueryAlignment;
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
+
+import java.util.*;
+
+// iterated local search of a small query network against an indexed reference. instead of padding the query to the
+// size of the reference and keeping an M x M edge matrix, the alignment is an injective map from the query nodes to
+// reference nodes and a conserved edge is a query edge whose images are adjacent in the reference. all state is the
+// size of the query: the map, its inverse on the used reference nodes and the candidate sets, which are drawn from the
+// reference neighbors of the images of a node's neighbors like UndirectedIteratedLocalSearch.localSearch() does
+public class QuerySearch {
+    private static final int MIN_LSI_SWAP_RATIO = 1000;
+
+    private final ReferenceIndex reference;
+    private final UndirectedNetwork query;
+    private final float perturbation_amount;
+    private final int min_lsi_swaps;
+    // nodes.get(a) is the ath query node in degree order. below, query nodes are referred to by this index a
+    private final List<Node> nodes;
+    // the neighbors of query node a are adjacency[offsets[a]] .. adjacency[offsets[a+1]-1]
+    private final int[] offsets, adjacency;
+    // image[a] is the reference node of query node a, owner maps the used reference nodes back
+    private final int[] image, best_image;
+    private final Map<Integer,Integer> owner = new HashMap<>();
+    // scratch of the local search
+    private final Counter hits = new Counter();
+    private int quality, best_quality;
+    private final Random rand;
+
+    public QuerySearch(ReferenceIndex reference, UndirectedNetwork query, float perturbation_amount, long random_seed) {
+        if(query.vertexSet().size() > reference.size()) {
+            throw new IllegalArgumentException(String.format("Query has %d nodes, more than the %d of the reference", query.vertexSet().size(), reference.size()));
+        }
+        this.reference = reference;
+        this.query = query;
+        this.perturbation_amount = perturbation_amount;
+        this.min_lsi_swaps = Math.max(1, query.edgeSet().size() / MIN_LSI_SWAP_RATIO);
+
+        nodes = new ArrayList<>(query.vertexSet());
+        nodes.sort(Comparator.comparingInt(query::degreeOf).reversed());
+        Map<Node,Integer> index = new HashMap<>();
+        for(int a = 0; a < nodes.size(); ++a) {
+            index.put(nodes.get(a), a);
+        }
+        offsets = new int[nodes.size() + 1];
+        adjacency = new int[2 * query.edgeSet().size()];
+        int next = 0;
+        for(int a = 0; a < nodes.size(); ++a) {
+            Node u = nodes.get(a);
+            offsets[a] = next;
+            for(Edge e : query.edgesOf(u)) {
+                Node w = e.getSource().equals(u) ? e.getTarget() : e.getSource();
+                adjacency[next++] = index.get(w);
+            }
+        }
+        offsets[nodes.size()] = next;
+
+        // nodes of equal degree rank are aligned, as the full search starts out
+        image = new int[nodes.size()];
+        for(int a = 0; a < nodes.size(); ++a) {
+            image[a] = a;
+            owner.put(a, a);
+        }
+        quality = countEdges();
+        best_quality = quality;
+        best_image = image.clone();
+
+        rand = random_seed == -1 ? new Random() : new Random(random_seed);
+    }
+
+    public void run(int max_nonimproving, int max_num_steps) {
+        int nonimproving = 0;
+        for(int num_steps = 0; nonimproving < max_nonimproving && num_steps < max_num_steps; ++num_steps) {
+            nonimproving = step() ? 0 : nonimproving + 1;
+        }
+    }
+
+    public boolean step() {
+        // perturbation: a query node of degree d moves to a random reference node of degree >= d, swapping with the
+        // query node there if there is one
+        int count = Math.round(nodes.size() * perturbation_amount);
+        for(int rep = 0; rep < count; ++rep) {
+            int a = rand.nextInt(nodes.size());
+            int bucket = reference.atLeast(offsets[a+1] - offsets[a]);
+            int r = rand.nextInt(bucket == 0 ? reference.size() : bucket);
+            if(r != image[a]) move(a, r);
+        }
+
+        int swaps;
+        do {
+            swaps = 0;
+            for(int a = 0; a < nodes.size(); ++a) {
+                if(localSearch(a)) swaps++;
+            }
+        } while(swaps >= min_lsi_swaps);
+
+        if(quality > best_quality) {
+            best_quality = quality;
+            System.arraycopy(image, 0, best_image, 0, image.length);
+            return true;
+        }
+        return false;
+    }
+
+    // moves query node a to the best reference node adjacent to the image of one of its neighbors. walking the reference
+    // neighbors of those images counts, for every candidate r, the neighbors of a which stay conserved if a moves to r,
+    // which is the whole gain of a free r and bounds the gain of an occupied one. only candidates whose bound beats the
+    // best gain so far are evaluated in full
+    private boolean localSearch(int a) {
+        int i = image[a];
+        hits.clear();
+        int current = 0;
+        for(int x = offsets[a]; x < offsets[a+1]; ++x) {
+            int s = image[adjacency[x]];
+            if(reference.adjacent(i, s)) current++;
+            int end = reference.offset(s) + reference.degree(s);
+            for(int y = reference.offset(s); y < end; ++y) {
+                hits.increment(reference.neighbor(y));
+            }
+        }
+
+        int best = -1;
+        int best_gain = 0;
+        for(int z = 0; z < hits.size(); ++z) {
+            int r = hits.key(z);
+            if(r == i) continue;
+            Integer c = owner.get(r);
+            // an edge between a and c keeps its images, which the counts do not know about
+            int bound = hits.count(z) - current + (c == null ? 0 : offsets[c+1] - offsets[c] + 1);
+            if(bound <= best_gain) continue;
+            int gain = c == null ? bound : gain(a, r);
+            if(gain > best_gain) {
+                best_gain = gain;
+                best = r;
+            }
+        }
+        if(best == -1) return false;
+        move(a, best);
+        return true;
+    }
+
+    // change in conserved edges when query node a moves to reference node r, swapping with the query node c at r. the
+    // edge between a and c, if any, keeps its pair of images
+    private int gain(int a, int r) {
+        int i = image[a];
+        Integer c = owner.get(r);
+        int gain = 0;
+        for(int x = offsets[a]; x < offsets[a+1]; ++x) {
+            int b = adjacency[x];
+            if(c != null && b == c) continue;
+            if(reference.adjacent(r, image[b])) gain++;
+            if(reference.adjacent(i, image[b])) gain--;
+        }
+        if(c == null) return gain;
+        for(int x = offsets[c]; x < offsets[c+1]; ++x) {
+            int d = adjacency[x];
+            if(d == a) continue;
+            if(reference.adjacent(i, image[d])) gain++;
+            if(reference.adjacent(r, image[d])) gain--;
+        }
+        return gain;
+    }
+
+    private void move(int a, int r) {
+        quality += gain(a, r);
+        int i = image[a];
+        Integer c = owner.remove(r);
+        owner.remove(i);
+        image[a] = r;
+        owner.put(r, a);
+        if(c != null) {
+            image[c] = i;
+            owner.put(i, c);
+        }
+    }
+
+    private int countEdges() {
+        int count = 0;
+        for(int a = 0; a < nodes.size(); ++a) {
+            for(int x = offsets[a]; x < offsets[a+1]; ++x) {
+                if(adjacency[x] > a && reference.adjacent(image[a], image[adjacency[x]])) count++;
+            }
+        }
+        return count;
+    }
+
+    public int getBestNumberOfEdges() {
+        return best_quality;
+    }
+
+    // one row per query node, in degree order: its reference node and itself
+    public QueryAlignment getAlignment() {
+        List<Node> reference_nodes = new ArrayList<>();
+        for(int a = 0; a < nodes.size(); ++a) {
+            reference_nodes.add(reference.node(best_image[a]));
+        }
+        return new QueryAlignment(Arrays.asList(reference_nodes, nodes), reference.getNetwork(), query);
+    }
+
+    // counts occurrences of reference nodes in an open addressing table, which is cleared in time proportional to the
+    // number of distinct keys, so it never costs anything of the size of the reference
+    private static class Counter {
+        private int[] slots = new int[64];
+        private int[] keys = new int[32], counts = new int[32];
+        private int size;
+
+        Counter() {
+            Arrays.fill(slots, -1);
+        }
+
+        void increment(int key) {
+            int mask = slots.length - 1;
+            int h = (key * 0x9E3779B9) & mask;
+            while(slots[h] != -1) {
+                if(keys[slots[h]] == key) {
+                    counts[slots[h]]++;
+                    return;
+                }
+                h = (h + 1) & mask;
+            }
+            if(size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                counts = Arrays.copyOf(counts, 2 * size);
+            }
+            keys[size] = key;
+            counts[size] = 1;
+            slots[h] = size++;
+            if(2 * size > slots.length) rehash();
+        }
+
+        private void rehash() {
+            slots = new int[2 * slots.length];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for(int z = 0; z < size; ++z) {
+                int h = (keys[z] * 0x9E3779B9) & mask;
+                while(slots[h] != -1) h = (h + 1) & mask;
+                slots[h] = z;
+            }
+        }
+
+        void clear() {
+            int mask = slots.length - 1;
+            for(int z = 0; z < size; ++z) {
+                int h = (keys[z] * 0x9E3779B9) & mask;
+                while(slots[h] != z) h = (h + 1) & mask;
+                slots[h] = -1;
+            }
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int key(int z) {
+            return keys[z];
+        }
+
+        int count(int z) {
+            return counts[z];
+        }
+    }
+}
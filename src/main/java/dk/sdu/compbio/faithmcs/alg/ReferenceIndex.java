@@ -0,0 +1,90 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
+
+import java.util.*;
+
+// read-only index of a large reference network which many small queries are aligned against, see QuerySearch. it is
+// built once and shared by all queries and threads. nodes are numbered in descending order of degree, so the nodes of
+// degree at least d are a prefix of the numbering (the degree buckets) and adjacency lists are sorted int arrays
+public final class ReferenceIndex {
+    private final UndirectedNetwork network;
+    // nodes.get(k) is the kth node in degree order
+    private final List<Node> nodes;
+    // the neighbors of node k are adjacency[offsets[k]] .. adjacency[offsets[k+1]-1], sorted
+    private final int[] offsets, adjacency;
+    // first[d] is the first node of degree < d, so nodes 0 .. first[d]-1 have degree >= d
+    private final int[] first;
+
+    public ReferenceIndex(UndirectedNetwork network) {
+        this.network = network;
+        nodes = new ArrayList<>(network.vertexSet());
+        nodes.sort(Comparator.comparingInt(network::degreeOf).reversed());
+        Map<Node,Integer> index = new HashMap<>();
+        for(int k = 0; k < nodes.size(); ++k) {
+            index.put(nodes.get(k), k);
+        }
+
+        offsets = new int[nodes.size() + 1];
+        adjacency = new int[2 * network.edgeSet().size()];
+        int next = 0;
+        for(int k = 0; k < nodes.size(); ++k) {
+            Node u = nodes.get(k);
+            offsets[k] = next;
+            for(Edge e : network.edgesOf(u)) {
+                Node w = e.getSource().equals(u) ? e.getTarget() : e.getSource();
+                adjacency[next++] = index.get(w);
+            }
+            Arrays.sort(adjacency, offsets[k], next);
+        }
+        offsets[nodes.size()] = next;
+
+        int max_degree = nodes.isEmpty() ? 0 : degree(0);
+        first = new int[max_degree + 2];
+        int k = nodes.size();
+        for(int d = 0; d < first.length; ++d) {
+            while(k > 0 && degree(k - 1) < d) k--;
+            first[d] = k;
+        }
+    }
+
+    public UndirectedNetwork getNetwork() {
+        return network;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public Node node(int k) {
+        return nodes.get(k);
+    }
+
+    public int degree(int k) {
+        return offsets[k+1] - offsets[k];
+    }
+
+    // number of nodes of degree at least d
+    public int atLeast(int d) {
+        return d < first.length ? first[Math.max(0, d)] : 0;
+    }
+
+    int offset(int k) {
+        return offsets[k];
+    }
+
+    int neighbor(int x) {
+        return adjacency[x];
+    }
+
+    public boolean adjacent(int k, int l) {
+        if(degree(k) > degree(l)) {
+            int t = k;
+            k = l;
+            l = t;
+        }
+        return Arrays.binarySearch(adjacency, offsets[k], offsets[k+1], l) >= 0;
+    }
+}
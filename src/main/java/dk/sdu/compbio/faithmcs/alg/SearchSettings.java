@@ -0,0 +1,52 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+
+import java.util.List;
+
+// the engine settings given on the command line. the plain search and every engine the multilevel, partitioned and
+// progressive modes build are configured alike through these, so no mode drops an option silently
+public class SearchSettings {
+    private final int exceptions;
+    private final Initializer initializer;
+    private final PerturbationStrategy strategy;
+    // the initial amount of the perturbation scheduler of every engine, or -1 to keep the perturbation amount fixed
+    private final float adaptive_perturbation;
+    private final boolean concurrent_networks, deterministic;
+
+    // initializer is null for degree order, which every search starts from anyway
+    public SearchSettings(int exceptions, Initializer initializer, PerturbationStrategy strategy, float adaptive_perturbation, boolean concurrent_networks, boolean deterministic) {
+        this.exceptions = exceptions;
+        this.initializer = initializer;
+        this.strategy = strategy;
+        this.adaptive_perturbation = adaptive_perturbation;
+        this.concurrent_networks = concurrent_networks;
+        this.deterministic = deterministic;
+    }
+
+    public int getExceptions() {
+        return exceptions;
+    }
+
+    // configures a new engine which runs steps of its own. every engine gets a scheduler of its own. engines which
+    // only refine a given alignment need just the exceptions
+    public void configure(IteratedLocalSearch search) {
+        search.setExceptions(exceptions);
+        search.setPerturbationStrategy(strategy);
+        search.setConcurrentNetworks(concurrent_networks);
+        search.setDeterministic(deterministic);
+        if(adaptive_perturbation >= 0) {
+            search.setPerturbationScheduler(new PerturbationScheduler(adaptive_perturbation));
+        }
+    }
+
+    // starts search from the initial alignment of its networks and returns that alignment, or null for degree order
+    public List<List<Node>> initialize(IteratedLocalSearch search, List<? extends Graph<Node,Edge>> networks) {
+        if(initializer == null) return null;
+        List<List<Node>> initial = initializer.initialize(networks);
+        search.setAlignment(initial);
+        return initial;
+    }
+}
@@ -0,0 +1,122 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+// seed-and-extend greedy matching of every network against the first one. the nodes of highest degree signature (see
+// DegreeSignatureInitializer) are matched as seeds, and the matching grows in rounds: every unmatched node next to the
+// matching proposes the unmatched reference node which is adjacent to the most partners of its matched neighbors, and
+// proposals are accepted by decreasing support as long as both nodes are free. proposals are computed in parallel
+// over the frontier nodes. nodes the extension never reaches are matched by signature rank
+public class SeedExtendInitializer implements Initializer {
+    private static final int SEEDS = 1;
+    // only this many matched neighbors of a frontier node vote for its partner, hubs would dominate otherwise
+    private static final int MAX_VOTERS = 32;
+
+    private static class Proposal {
+        final Node node, partner;
+        final int support;
+
+        Proposal(Node node, Node partner, int support) {
+            this.node = node;
+            this.partner = partner;
+            this.support = support;
+        }
+    }
+
+    @Override
+    public List<List<Node>> initialize(List<? extends Graph<Node,Edge>> networks) {
+        Graph<Node,Edge> reference = networks.get(0);
+        List<Node> reference_order = DegreeSignatureInitializer.order(reference);
+        Map<Node,Integer> reference_position = new HashMap<>();
+        for(int p = 0; p < reference_order.size(); ++p) {
+            reference_position.put(reference_order.get(p), p);
+        }
+
+        List<List<Node>> alignment = new ArrayList<>();
+        alignment.add(reference_order);
+        alignment.addAll(networks.subList(1, networks.size()).parallelStream()
+                .map(network -> match(reference, reference_order, reference_position, network))
+                .collect(Collectors.toList()));
+        return alignment;
+    }
+
+    private List<Node> match(Graph<Node,Edge> reference, List<Node> reference_order, Map<Node,Integer> reference_position, Graph<Node,Edge> network) {
+        List<Node> order = DegreeSignatureInitializer.order(network);
+        Map<Node,Node> partner = new HashMap<>();
+        Set<Node> taken = new HashSet<>();
+        for(int s = 0; s < SEEDS && s < order.size() && s < reference_order.size(); ++s) {
+            partner.put(order.get(s), reference_order.get(s));
+            taken.add(reference_order.get(s));
+        }
+
+        Set<Node> frontier = new HashSet<>();
+        partner.keySet().forEach(u -> frontier.addAll(Graphs.neighborListOf(network, u)));
+        while(true) {
+            frontier.removeAll(partner.keySet());
+            if(frontier.isEmpty()) break;
+
+            List<Proposal> proposals = frontier.parallelStream()
+                    .map(v -> propose(reference, network, v, partner, taken))
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparingInt((Proposal x) -> x.support).reversed())
+                    .collect(Collectors.toList());
+
+            List<Node> accepted = new ArrayList<>();
+            for(Proposal proposal : proposals) {
+                if(partner.containsKey(proposal.node) || taken.contains(proposal.partner)) continue;
+                partner.put(proposal.node, proposal.partner);
+                taken.add(proposal.partner);
+                accepted.add(proposal.node);
+            }
+            if(accepted.isEmpty()) break;
+            accepted.forEach(u -> frontier.addAll(Graphs.neighborListOf(network, u)));
+        }
+
+        // positions follow the reference order. nodes left over are paired with the free reference positions by rank,
+        // and positions beyond the reference hold the rest
+        Node[] aligned = new Node[Math.max(reference_order.size(), order.size())];
+        partner.forEach((u, x) -> aligned[reference_position.get(x)] = u);
+        int p = 0;
+        for(Node u : order) {
+            if(partner.containsKey(u)) continue;
+            while(aligned[p] != null) p++;
+            aligned[p] = u;
+        }
+        System.err.println(String.format("seed-extend: matched %d of %d nodes by extension", partner.size(), order.size()));
+        return Arrays.asList(aligned);
+    }
+
+    // the free reference node adjacent to the most partners of the matched neighbors of v, ties broken by the closest
+    // degree. null if no matched neighbor has a free neighbor
+    private static Proposal propose(Graph<Node,Edge> reference, Graph<Node,Edge> network, Node v, Map<Node,Node> partner, Set<Node> taken) {
+        Map<Node,Integer> votes = new HashMap<>();
+        int voters = 0;
+        for(Node w : Graphs.neighborListOf(network, v)) {
+            Node x = partner.get(w);
+            if(x == null) continue;
+            for(Node y : Graphs.neighborListOf(reference, x)) {
+                if(!taken.contains(y)) votes.merge(y, 1, Integer::sum);
+            }
+            if(++voters == MAX_VOTERS) break;
+        }
+
+        int degree = network.edgesOf(v).size();
+        Node best = null;
+        int best_support = 0, best_difference = 0;
+        for(Map.Entry<Node,Integer> vote : votes.entrySet()) {
+            int difference = Math.abs(reference.edgesOf(vote.getKey()).size() - degree);
+            if(vote.getValue() > best_support || (vote.getValue() == best_support && difference < best_difference)) {
+                best = vote.getKey();
+                best_support = vote.getValue();
+                best_difference = difference;
+            }
+        }
+        return best == null ? null : new Proposal(v, best, best_support);
+    }
+}
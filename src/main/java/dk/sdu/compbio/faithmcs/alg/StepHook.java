@@ -0,0 +1,7 @@
+package dk.sdu.compbio.faithmcs.alg;
+
+// called by IteratedLocalSearch.run() after every step, see IslandSearch. returning true counts the step as improving,
+// e.g. when the hook replaced the alignment by a better one
+public interface StepHook {
+    boolean afterStep(int num_steps);
+}
@@ -1,230 +1,171 @@
 package dk.sdu.compbio.faithmcs.alg;
 
-import com.google.common.collect.Sets;
+import dk.sdu.compbio.faithmcs.DeltaKernel;
+import dk.sdu.compbio.faithmcs.EdgeMatrixFactory;
+import dk.sdu.compbio.faithmcs.EdgeMatrixType;
 import dk.sdu.compbio.faithmcs.UndirectedAlignment;
-import dk.sdu.compbio.faithmcs.UndirectedEdgeMatrix;
 import dk.sdu.compbio.faithmcs.network.Edge;
 import dk.sdu.compbio.faithmcs.network.UndirectedNetwork;
 import dk.sdu.compbio.faithmcs.network.Node;
-import org.jgrapht.alg.NeighborIndex;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
-public class UndirectedIteratedLocalSearch implements IteratedLocalSearch {
-    private final int n, M;
-    private final List<UndirectedNetwork> networks;
-    private final int min_lsi_swaps;
-    private final int MIN_LSI_SWAP_RATIO = 1000;
-    private float perturbation_amount;
-
-    private final List<NeighborIndex<Node,Edge>> indices;
-    private final List<List<Node>> nodes;
-    private final UndirectedEdgeMatrix edges;
-    private final int[][] best_positions;
-    private int quality, best_quality;
-    private final Random rand;
+public class UndirectedIteratedLocalSearch extends AbstractIteratedLocalSearch<UndirectedNetwork,UndirectedAlignment> {
+    private final DeltaKernel kernel;
 
     public UndirectedIteratedLocalSearch(List<UndirectedNetwork> networks, float perturbation_amount, long random_seed) {
-        this.networks = networks;
-        // min_lsi_swaps uses the min of the edges instead of the max because the # of swaps is limited to the min # of edges
-        this.min_lsi_swaps = (int)(networks.stream().mapToInt(g -> g.edgeSet().size()).min().getAsInt() / MIN_LSI_SWAP_RATIO);
-        this.perturbation_amount = perturbation_amount;
-
-        n = networks.size();
-        M = networks.stream().mapToInt(g -> g.vertexSet().size()).max().getAsInt();
-
-        indices = new ArrayList<>();
-
-        // we make fake nodes because different networks may have different numbers of nodes. see writeAlignment()
-        // also, the NeighborIndex is simply a cache of the number of neighbors of each node
-        int fid = 0;
-        for(UndirectedNetwork network : networks) {
-            while(network.vertexSet().size() < M) {
-                Node fake_node = new Node("$fake$" + fid++, true);
-                network.addVertex(fake_node);
-            }
-
-            indices.add(new NeighborIndex<>(network));
-        }
-
-        // list of lists of nodes in each network
-        nodes = networks.stream()
-                .map(network -> new ArrayList<>(network.vertexSet()))
-                .collect(Collectors.toList());
-
-        // for each network, sort the nodes by degree in descending order, and set position based on that too
-        for(int i = 0; i < n; ++i) {
-            nodes.get(i).sort(Comparator.comparingInt(networks.get(i)::degreeOf).reversed());
-            int pos = 0;
-            for(Node node : nodes.get(i)) {
-                node.setPosition(pos++);
-            }
-        }
-
-        edges = new UndirectedEdgeMatrix(networks);
-
-        if (random_seed == -1) {
-            System.out.println("Using random seed");
-            rand = new Random();
-        } else {
-            System.out.println("Using seed " + random_seed);
-            rand = new Random(random_seed);
-        }
+        this(networks, perturbation_amount, random_seed, EdgeMatrixType.DENSE, true);
+    }
 
-        // the nodes at position X in all the networks will be aligned to each other. For example, if node15 in A and node38 in B are both in position 0, they'll be aligned to each other
-        // best_position[i][j] refers to the position of the jth node in the ith network
-        // the "jth node" in a network is the node with the jth highest degree
-        best_positions = new int[n][M];
-        copyPositions(nodes, best_positions);
-        best_quality = edges.countEdges();
+    public UndirectedIteratedLocalSearch(List<UndirectedNetwork> networks, float perturbation_amount, long random_seed, EdgeMatrixFactory matrix_factory, boolean vectorize) {
+        super(networks, perturbation_amount, random_seed, matrix_factory, false);
+        kernel = DeltaKernel.create(edges, vectorize);
+        System.err.println("Using " + kernel + " delta kernel");
     }
 
     @Override
-    public void run(int max_nonimproving, int max_num_steps) {
-        System.err.println(String.format("running with max_nonimproving=%d, max_num_steps=%d, perturbation_amount=%f", max_nonimproving, max_num_steps, perturbation_amount));
+    protected int degree(UndirectedNetwork network, Node u) {
+        return network.degreeOf(u);
+    }
 
-        int nonimproving = 0;
-        int num_steps = 0;
-        while(nonimproving < max_nonimproving && num_steps < max_num_steps) {
-            nonimproving++;
-            if(step()) {
-                nonimproving = 0;
+    // one neighbor list per node: the neighbors of node k in network i are adjacency[i][offsets[i][k]] ..
+    // adjacency[i][offsets[i][k+1]-1], sorted
+    @Override
+    protected void index(int i, Map<Node,Integer> index) {
+        UndirectedNetwork network = networks.get(i);
+        List<Node> node_list = nodes.get(i);
+        offsets[i] = new int[node_list.size() + 1];
+        adjacency[i] = new int[2 * network.edgeSet().size()];
+        int next = 0;
+        for(int k = 0; k < node_list.size(); ++k) {
+            Node u = node_list.get(k);
+            offsets[i][k] = next;
+            for(Edge e : network.edgesOf(u)) {
+                Node w = e.getSource().equals(u) ? e.getTarget() : e.getSource();
+                adjacency[i][next++] = index.get(w);
             }
-            num_steps++;
-            System.err.println(String.format("step: %d, current: %d edges, best: %d edges", num_steps, quality, best_quality));
+            Arrays.sort(adjacency[i], offsets[i][k], next);
         }
+        offsets[i][node_list.size()] = next;
     }
 
+    // change in objective when moving node u to position p, swapping it with the node v at p (if p is not padding).
+    // every neighbor w of u contributes 2 * (edges(j,l) - edges(i,l)) + 2 and every neighbor of v the reverse, except
+    // that common neighbors cancel out (-4 each) and v itself (resp. u) does not count as a neighbor
     @Override
-    public boolean step() {
-        // perturbation step
-        // M is the max amount of nodes out of all the networks
-        int count = Math.round(M * perturbation_amount);
-        for(int i = 1; i < n; ++i) {
-            for(int rep = 0; rep < count; ++rep) {
-                int j = rand.nextInt(M);
-                int k;
-                do k = rand.nextInt(M); while(k == j);
-                swap(indices.get(i), nodes.get(i).get(j), nodes.get(i).get(k));
-            }
+    protected int delta(int g, int u, int p) {
+        int[] adj = adjacency[g];
+        int[] off = offsets[g];
+        int[] pos = positions[g];
+        int v = occupants[g][p];
+
+        int i = pos[u];
+        int j = p;
+
+        int degree = off[u+1] - off[u];
+        int gain = kernel.gain(i, j, adj, off[u], off[u+1], pos);
+        if(v == -1) {
+            return 2 * gain + 2 * degree;
         }
 
-        // local search step
-        boolean repeat = true;
-        int num_iterations = 0;
-        int num_swaps_this_iteration = 0;
-        while(repeat) {
-            repeat = false;
-            num_swaps_this_iteration = 0;
-            long iteration_start_time = System.currentTimeMillis();
-            for (int i = 1; i < n; ++i) {
-                for (int j = 0; j < M-1; ++j) {
-                    int finalI = i;
-                    int finalJ = j;
-
-                    List<Integer> dts = IntStream.range(j+1, M)
-                            .parallel()
-                            .mapToObj(k -> delta(indices.get(finalI), nodes.get(finalI).get(finalJ), nodes.get(finalI).get(k)))
-                            .collect(Collectors.toList());
-
-                    Integer best = IntStream.range(j+1, M)
-                            .parallel()
-                            .boxed()
-                            .max(Comparator.comparingInt(k -> dts.get(k-(finalJ+1)))).get();
-
-                    int dt = dts.get(best-(j+1));
-
-                    if(dt > 0) {
-                        num_swaps_this_iteration += 1;
-                        NeighborIndex<Node,Edge> index = indices.get(i);
-                        swap(index, nodes.get(i).get(j), nodes.get(i).get(best));
-                    }
-                }
-            }
-            num_iterations += 1;
-            long iteration_end_time = System.currentTimeMillis();
-
-            if (num_swaps_this_iteration >= this.min_lsi_swaps) {
-                repeat = true;
-            }
+        degree += off[v+1] - off[v];
+        gain -= kernel.gain(i, j, adj, off[v], off[v+1], pos);
 
-            System.err.println("LSI " + num_iterations + ", S=" + num_swaps_this_iteration);
-            System.err.println("LSI " + num_iterations + " took " + (iteration_end_time - iteration_start_time) + "ms");
+        if(Arrays.binarySearch(adj, off[u], off[u+1], v) >= 0) {
+            gain -= edges.get(j, j) - edges.get(i, j);
+            gain += edges.get(j, i) - edges.get(i, i);
+            degree -= 2;
         }
 
-        // count edges
-        quality = edges.countEdges();
-        if(quality > best_quality) {
-            best_quality = quality;
-            copyPositions(nodes, best_positions);
-            return true;
+        int common = 0;
+        for(int x = off[u], y = off[v]; x < off[u+1] && y < off[v+1]; ) {
+            if(adj[x] < adj[y]) x++;
+            else if(adj[x] > adj[y]) y++;
+            else { common++; x++; y++; }
         }
-        return false;
-    }
 
-    private void copyPositions(List<List<Node>> nodes, int[][] positions) {
-        for(int i = 0; i < nodes.size(); ++i) {
-            for(int j = 0; j < nodes.get(i).size(); ++j) {
-                positions[i][j] = nodes.get(i).get(j).getPosition();
-            }
-        }
+        return 2 * gain + 2 * degree - 4 * common;
     }
 
-    private int delta(NeighborIndex<Node,Edge> index, Node u, Node v) {
-        int delta = 0;
+    // change in the number of cells conserved in at least threshold networks when moving node u to position p. every
+    // edge which moves from cell c to cell d is lost if c held exactly threshold and gained if d held threshold - 1.
+    // the edges of common neighbors stay where they are, so the lists are merged like in swap()
+    @Override
+    protected int thresholdDelta(int g, int u, int p) {
+        int[] adj = adjacency[g];
+        int[] off = offsets[g];
+        int[] pos = positions[g];
+        int v = occupants[g][p];
 
-        int i = u.getPosition();
-        int j = v.getPosition();
+        int i = pos[u];
+        int j = p;
 
-        for(Node w : Sets.difference(index.neighborsOf(u), index.neighborsOf(v))){
-            if(w != v) {
-                int l = w.getPosition();
-                delta -= 2 * edges.get(i, l) - 1;
-                delta += 2 * edges.get(j, l) + 1;
-            }
-        }
-
-        for(Node w : Sets.difference(index.neighborsOf(v), index.neighborsOf(u))) {
-            if(w != u) {
-                int l = w.getPosition();
-                delta -= 2 * edges.get(j, l) - 1;
-                delta += 2 * edges.get(i, l) + 1;
+        int delta = 0;
+        int x = off[u], y = v == -1 ? 0 : off[v], y_end = v == -1 ? 0 : off[v+1];
+        while(x < off[u+1] || y < y_end) {
+            int from, to, w;
+            if(y == y_end || (x < off[u+1] && adj[x] < adj[y])) {
+                w = adj[x++];
+                if(w == v) continue;
+                from = i;
+                to = j;
+            } else if(x == off[u+1] || adj[x] > adj[y]) {
+                w = adj[y++];
+                if(w == u) continue;
+                from = j;
+                to = i;
+            } else {
+                x++;
+                y++;
+                continue;
             }
+            int l = pos[w];
+            if(edges.get(from, l) == threshold) delta--;
+            if(edges.get(to, l) == threshold - 1) delta++;
         }
-
         return delta;
     }
 
-    private void swap(NeighborIndex<Node,Edge> index, Node u, Node v) {
-        int i = u.getPosition();
-        int j = v.getPosition();
-
-        // for all nodes which are neighbors of u but not v
-        for(Node w : Sets.difference(index.neighborsOf(u), index.neighborsOf(v))) {
-            if(w != v) { // since v is not a neighbor of itself the set above might contain v. we want to ignore it though
-                int l = w.getPosition();
-                edges.decrement(i, l);
-                edges.increment(j, l);
-            }
-        }
-
-        // see above comments
-        for(Node w : Sets.difference(index.neighborsOf(v), index.neighborsOf(u))) {
-            if(w != u) {
-                int l = w.getPosition();
-                edges.decrement(j, l);
-                edges.increment(i, l);
+    // moves node u to position p. the node v at p (if p is not padding) takes the old position of u
+    @Override
+    protected void swap(int g, int u, int p) {
+        int[] adj = adjacency[g];
+        int[] off = offsets[g];
+        int[] pos = positions[g];
+        int v = occupants[g][p];
+
+        int i = pos[u];
+        int j = p;
+
+        // walk both sorted neighbor lists. nodes which are neighbors of u but not v move from i to j and vice versa
+        int x = off[u], y = v == -1 ? 0 : off[v], y_end = v == -1 ? 0 : off[v+1];
+        while(x < off[u+1] || y < y_end) {
+            if(y == y_end || (x < off[u+1] && adj[x] < adj[y])) {
+                if(adj[x] != v) { // since v is not a neighbor of itself the set above might contain v. we want to ignore it though
+                    int l = pos[adj[x]];
+                    edges.decrement(i, l);
+                    edges.increment(j, l);
+                }
+                x++;
+            } else if(x == off[u+1] || adj[x] > adj[y]) {
+                if(adj[y] != u) {
+                    int l = pos[adj[y]];
+                    edges.decrement(j, l);
+                    edges.increment(i, l);
+                }
+                y++;
+            } else {
+                // common neighbor, nothing changes
+                x++;
+                y++;
             }
         }
 
-        u.setPosition(j);
-        v.setPosition(i);
+        move(g, u, p);
 
         // PAT DEBUG
-        int uDeg = index.neighborsOf(u).size();
-        int vDeg = index.neighborsOf(v).size();
+        int uDeg = off[u+1] - off[u];
+        int vDeg = y_end - (v == -1 ? 0 : off[v]);
 
         int maxDeg = Math.max(uDeg, vDeg);
         int minDeg = Math.min(uDeg, vDeg);
@@ -235,36 +176,45 @@ public class UndirectedIteratedLocalSearch implements IteratedLocalSearch {
         }
     }
 
-    // called after aligner.run()
     @Override
-    public UndirectedAlignment getAlignment() {
-        // copy best solution back into nodes
-        for(int i = 0; i < n; ++i) {
-            for(int j = 0; j < M; ++j) {
-                nodes.get(i).get(j).setPosition(best_positions[i][j]);
-            }
-        }
-
-        // Sort nodes on position to obtain alignment
-        for(List<Node> node_list : nodes) {
-            node_list.sort(Comparator.comparingInt(Node::getPosition));
+    protected int unconserved(int g, int u, int p) {
+        int unconserved = 0;
+        for(int x = offsets[g][u]; x < offsets[g][u+1]; ++x) {
+            if(edges.get(p, positions[g][adjacency[g][x]]) < threshold) unconserved++;
         }
-
-        return new UndirectedAlignment(nodes, networks);
+        return unconserved;
     }
 
+    // the keys are i * M + j with i <= j for an edge between positions i and j
     @Override
-    public int getCurrentNumberOfEdges() {
-        return quality;
+    protected long[] cellKeys(int g) {
+        long[] cells = new long[offsets[g][positions[g].length] / 2];
+        int size = 0;
+        for(int a = 0; a < positions[g].length; ++a) {
+            for(int x = offsets[g][a]; x < offsets[g][a+1]; ++x) {
+                if(adjacency[g][x] <= a) continue;
+                long i = positions[g][a], j = positions[g][adjacency[g][x]];
+                cells[size++] = i < j ? i * M + j : j * M + i;
+            }
+        }
+        Arrays.sort(cells);
+        return cells;
     }
 
+    // visits every edge once, as node indices a < b
     @Override
-    public int getBestNumberOfEdges() {
-        return best_quality;
+    protected void forEachEdge(EdgeConsumer consumer) {
+        for(int g = 0; g < n; ++g) {
+            for(int a = 0; a < positions[g].length; ++a) {
+                for(int x = offsets[g][a]; x < offsets[g][a+1]; ++x) {
+                    if(adjacency[g][x] > a) consumer.accept(g, a, adjacency[g][x]);
+                }
+            }
+        }
     }
 
     @Override
-    public void setPerturbationAmount(float a) {
-        this.perturbation_amount = a;
+    protected UndirectedAlignment newAlignment(List<List<Node>> alignment) {
+        return new UndirectedAlignment(alignment, networks);
     }
 }
@@ -5,6 +5,7 @@ import org.jgrapht.graph.DefaultEdge;
 public class Edge extends DefaultEdge {
     private final Node source, target;
     private final int conservation;
+    // edges of input networks share the instance of the dictionary they were loaded with, see SIFImporter
     private final String label;
 
     public Edge(Node source, Node target, String label, int conservation) {
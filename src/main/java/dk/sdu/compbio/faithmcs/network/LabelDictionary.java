@@ -0,0 +1,15 @@
+package dk.sdu.compbio.faithmcs.network;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// interns labels. networks loaded together share one dictionary, so a label occurring in several networks, or an edge
+// label repeated on every edge, is stored once. the dictionary lives as long as the networks loaded with it
+public class LabelDictionary {
+    private final Map<String,String> labels = new HashMap<>();
+
+    public synchronized String intern(String label) {
+        String interned = labels.putIfAbsent(label, label);
+        return interned != null ? interned : label;
+    }
+}
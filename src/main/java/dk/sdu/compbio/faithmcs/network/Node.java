@@ -17,6 +17,12 @@ public class Node {
         this(label, false);
     }
 
+    // node of an input network. the label is the dictionary's instance, shared by the nodes of the same label in all
+    // networks loaded with that dictionary
+    public Node(LabelDictionary dictionary, String label) {
+        this(dictionary.intern(label), false);
+    }
+
     public String getLabel() {
         return label;
     }
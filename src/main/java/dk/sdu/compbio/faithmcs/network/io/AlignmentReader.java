@@ -0,0 +1,116 @@
+package dk.sdu.compbio.faithmcs.network.io;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+// reads alignment tables: one line per position with tab separated node labels. a line with one field per network is
+// read column by column, empty fields being padding (the format of FaithMCS -o and the IslandSearch migrants). older
+// tables dropped the padding, so shorter lines are matched in network order to the nodes the full lines left free. a
+// short line is only accepted when its labels fit the free nodes in exactly one way, which is the case when its first
+// possible networks (leftmost match) and its last possible networks (rightmost match) agree
+public class AlignmentReader {
+    public static List<List<Node>> read(List<? extends Graph<Node,Edge>> networks, File file) throws IOException, ImportException {
+        try(BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return read(networks, reader, file.getPath());
+        }
+    }
+
+    // reads the rest of reader, the errors name the table source
+    public static List<List<Node>> read(List<? extends Graph<Node,Edge>> networks, BufferedReader reader, String source) throws IOException, ImportException {
+        int n = networks.size();
+        List<Map<String,Node>> labels = new ArrayList<>();
+        List<Set<Node>> used = new ArrayList<>();
+        List<List<Node>> alignment = new ArrayList<>();
+        for(Graph<Node,Edge> network : networks) {
+            Map<String,Node> by_label = new HashMap<>();
+            network.vertexSet().forEach(u -> by_label.put(u.getLabel(), u));
+            labels.add(by_label);
+            used.add(new HashSet<>());
+            alignment.add(new ArrayList<>());
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        String line;
+        while((line = reader.readLine()) != null) {
+            rows.add(line.split("\t", -1));
+        }
+
+        // full rows first, so the nodes they hold are already taken when the short rows are matched
+        Node[][] aligned = new Node[rows.size()][n];
+        for(int p = 0; p < rows.size(); ++p) {
+            String[] row = rows.get(p);
+            if(row.length > n) {
+                throw new ImportException(String.format("%s:%d: %d fields for %d networks", source, p + 1, row.length, n));
+            }
+            if(row.length < n) continue;
+            for(int g = 0; g < n; ++g) {
+                if(row[g].isEmpty()) continue;
+                aligned[p][g] = labels.get(g).get(row[g]);
+                if(aligned[p][g] == null) {
+                    throw new ImportException(String.format("%s:%d: network %d has no node %s", source, p + 1, g + 1, row[g]));
+                }
+                if(!used.get(g).add(aligned[p][g])) {
+                    throw new ImportException(String.format("%s:%d: node %s of network %d is aligned twice", source, p + 1, row[g], g + 1));
+                }
+            }
+        }
+        // every short line is matched against the nodes left by the full lines only, so its match does not depend on
+        // the order of the short lines
+        List<Set<Node>> free_of_full = new ArrayList<>();
+        for(int g = 0; g < n; ++g) {
+            free_of_full.add(new HashSet<>(used.get(g)));
+        }
+        for(int p = 0; p < rows.size(); ++p) {
+            String[] row = rows.get(p);
+            if(row.length == n) continue;
+            List<String> row_labels = new ArrayList<>();
+            for(String label : row) {
+                if(!label.isEmpty()) row_labels.add(label);
+            }
+            int k = row_labels.size();
+            int[] first = new int[k];
+            int[] last = new int[k];
+            for(int i = 0, g = 0; i < k; ++i, ++g) {
+                while(g < n && !fits(labels.get(g), free_of_full.get(g), row_labels.get(i))) g++;
+                if(g == n) {
+                    throw new ImportException(String.format("%s:%d: cannot place node %s in any remaining network", source, p + 1, row_labels.get(i)));
+                }
+                first[i] = g;
+            }
+            for(int i = k-1, g = n-1; i >= 0; --i, --g) {
+                while(!fits(labels.get(g), free_of_full.get(g), row_labels.get(i))) g--;
+                last[i] = g;
+            }
+            if(!Arrays.equals(first, last)) {
+                throw new ImportException(String.format("%s:%d: the line has no field per network and its nodes fit several networks", source, p + 1));
+            }
+            for(int i = 0; i < k; ++i) {
+                int g = first[i];
+                aligned[p][g] = labels.get(g).get(row_labels.get(i));
+                if(!used.get(g).add(aligned[p][g])) {
+                    throw new ImportException(String.format("%s:%d: node %s of network %d is aligned twice", source, p + 1, row_labels.get(i), g + 1));
+                }
+            }
+        }
+
+        for(int g = 0; g < n; ++g) {
+            for(Node[] row : aligned) {
+                alignment.get(g).add(row[g]);
+            }
+        }
+        return alignment;
+    }
+
+    private static boolean fits(Map<String,Node> labels, Set<Node> taken, String label) {
+        Node u = labels.get(label);
+        return u != null && !taken.contains(u);
+    }
+}
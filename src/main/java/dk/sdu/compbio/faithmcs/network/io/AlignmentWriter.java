@@ -0,0 +1,31 @@
+package dk.sdu.compbio.faithmcs.network.io;
+
+import dk.sdu.compbio.faithmcs.network.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// writes alignment tables as AlignmentReader reads them: one line per position with one tab separated field per
+// network, empty for padding. the lines are formatted in parallel chunks
+public class AlignmentWriter {
+    public static void write(List<List<Node>> alignment, File file) throws IOException {
+        write(alignment, file, null);
+    }
+
+    // header, if not null, is written as the first line
+    public static void write(List<List<Node>> alignment, File file, String header) throws IOException {
+        int M = alignment.get(0).size();
+        ByteBuffer header_line = header == null ? null : ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.UTF_8));
+        ChunkedWriter.write(file, header_line, M, ChunkedWriter.text((j, out) -> {
+            for(int i = 0; i < alignment.size(); ++i) {
+                Node node = alignment.get(i).get(j);
+                if(i > 0) out.append('\t');
+                if(node != null && !node.isFake()) out.append(node.getLabel());
+            }
+            out.append('\n');
+        }));
+    }
+}
@@ -0,0 +1,54 @@
+package dk.sdu.compbio.faithmcs.network.io;
+
+import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.Node;
+import org.jgrapht.Graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// binary edge list, big endian:
+//   magic "FMCSEDGE" (8 bytes), number of nodes (int), number of edges (int)
+//   per node: length of the UTF-8 label in bytes (int), label
+//   per edge: index of the source node (int), index of the target node (int), conservation (int)
+// nodes are indexed in the order they are listed. edge labels are not stored
+public class BinaryEdgeListExporter implements Exporter {
+    private static final long MAGIC = 0x464D435345444745L; // "FMCSEDGE"
+    private static final int EDGE_BYTES = 12;
+
+    public void write(Graph<Node,Edge> network, File file) throws IOException {
+        Node[] nodes = network.vertexSet().toArray(new Node[0]);
+        Edge[] edges = network.edgeSet().toArray(new Edge[0]);
+        Map<Node,Integer> index = new HashMap<>();
+        byte[][] labels = new byte[nodes.length][];
+        int label_bytes = 0;
+        for(int k = 0; k < nodes.length; ++k) {
+            index.put(nodes[k], k);
+            labels[k] = nodes[k].getLabel().getBytes(StandardCharsets.UTF_8);
+            label_bytes += 4 + labels[k].length;
+        }
+
+        // the node table is small next to the edges, it goes into the header
+        ByteBuffer header = ByteBuffer.allocate(16 + label_bytes);
+        header.putLong(MAGIC).putInt(nodes.length).putInt(edges.length);
+        for(byte[] label : labels) {
+            header.putInt(label.length).put(label);
+        }
+        header.flip();
+
+        ChunkedWriter.write(file, header, edges.length, (from, to) -> {
+            ByteBuffer buffer = ByteBuffer.allocate(EDGE_BYTES * (to - from));
+            for(int x = from; x < to; ++x) {
+                buffer.putInt(index.get(edges[x].getSource()))
+                        .putInt(index.get(edges[x].getTarget()))
+                        .putInt(edges[x].getConservation());
+            }
+            buffer.flip();
+            return buffer;
+        });
+    }
+}
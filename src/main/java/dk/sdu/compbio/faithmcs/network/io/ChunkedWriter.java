@@ -0,0 +1,77 @@
+package dk.sdu.compbio.faithmcs.network.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+// writes a file of rows which are formatted in parallel: the rows are split into chunks of CHUNK_ROWS, every chunk is
+// formatted into its own byte buffer on the common pool and the buffers are written through one channel in row order.
+// at most WINDOW chunks per thread are in flight, so memory stays bounded however many rows there are
+public class ChunkedWriter {
+    private static final int CHUNK_ROWS = 8192;
+    private static final int WINDOW = 2;
+
+    // formats rows from .. to-1 into a buffer ready to be written
+    public interface ChunkFormatter {
+        ByteBuffer format(int from, int to);
+    }
+
+    // appends row to out, including the line break
+    public interface RowFormatter {
+        void format(int row, StringBuilder out);
+    }
+
+    public static void write(File file, int rows, ChunkFormatter formatter) throws IOException {
+        write(file, null, rows, formatter);
+    }
+
+    // header, if not null, is written before the rows
+    public static void write(File file, ByteBuffer header, int rows, ChunkFormatter formatter) throws IOException {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if(header != null) writeFully(channel, header);
+            int window = WINDOW * ForkJoinPool.getCommonPoolParallelism();
+            Deque<CompletableFuture<ByteBuffer>> pending = new ArrayDeque<>();
+            int from = 0;
+            while(from < rows || !pending.isEmpty()) {
+                if(from < rows && pending.size() < window) {
+                    int chunk_from = from;
+                    int chunk_to = Math.min(rows, from + CHUNK_ROWS);
+                    pending.add(CompletableFuture.supplyAsync(() -> formatter.format(chunk_from, chunk_to)));
+                    from = chunk_to;
+                } else {
+                    writeFully(channel, pending.poll().get());
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing " + file, e);
+        } catch(ExecutionException e) {
+            throw new IOException("Could not format " + file, e.getCause());
+        }
+    }
+
+    // text rows, encoded as UTF-8
+    public static ChunkFormatter text(RowFormatter formatter) {
+        return (from, to) -> {
+            StringBuilder out = new StringBuilder(64 * (to - from));
+            for(int row = from; row < to; ++row) {
+                formatter.format(row, out);
+            }
+            return ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8));
+        };
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -5,8 +5,8 @@ import dk.sdu.compbio.faithmcs.network.Node;
 import org.jgrapht.Graph;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 interface Exporter {
-    void write(Graph<Node,Edge> network, File file) throws FileNotFoundException;
+    void write(Graph<Node,Edge> network, File file) throws IOException;
 }
@@ -1,6 +1,7 @@
 package dk.sdu.compbio.faithmcs.network.io;
 
 import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.LabelDictionary;
 import dk.sdu.compbio.faithmcs.network.Node;
 import org.jgrapht.Graph;
 
@@ -8,5 +9,5 @@ import java.io.File;
 import java.io.FileNotFoundException;
 
 interface Importer {
-    void read(Graph<Node,Edge> network, File file) throws FileNotFoundException;
+    void read(Graph<Node,Edge> network, File file, LabelDictionary dictionary) throws FileNotFoundException;
 }
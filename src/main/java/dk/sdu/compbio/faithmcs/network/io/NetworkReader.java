@@ -1,6 +1,7 @@
 package dk.sdu.compbio.faithmcs.network.io;
 
 import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.LabelDictionary;
 import dk.sdu.compbio.faithmcs.network.Node;
 import org.jgrapht.Graph;
 
@@ -9,6 +10,11 @@ import java.io.FileNotFoundException;
 
 public class NetworkReader {
     public static void read(Graph<Node,Edge> network, File file) throws FileNotFoundException, ImportException {
+        read(network, file, new LabelDictionary());
+    }
+
+    // networks read with the same dictionary share their node and edge labels
+    public static void read(Graph<Node,Edge> network, File file, LabelDictionary dictionary) throws FileNotFoundException, ImportException {
         String path = file.getPath();
         int dotpos = path.lastIndexOf('.');
         if(dotpos == -1 || dotpos == path.length()) {
@@ -24,6 +30,6 @@ public class NetworkReader {
 
         if(importer == null) throw new IllegalArgumentException("Unrecognized file format: " + ending);
 
-        importer.read(network, file);
+        importer.read(network, file, dictionary);
     }
 }
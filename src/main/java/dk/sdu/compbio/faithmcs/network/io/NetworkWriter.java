@@ -5,10 +5,10 @@ import dk.sdu.compbio.faithmcs.network.Node;
 import org.jgrapht.Graph;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 public class NetworkWriter {
-    public static void write(Graph<Node,Edge> network, File file) throws FileNotFoundException {
+    public static void write(Graph<Node,Edge> network, File file) throws IOException {
         String path = file.getPath();
         int dotpos = path.lastIndexOf('.');
         if(dotpos == -1 || dotpos == path.length()) {
@@ -21,6 +21,8 @@ public class NetworkWriter {
         switch(ending) {
             case "sif":
                 exporter = new SIFExporter(); break;
+            case "bin":
+                exporter = new BinaryEdgeListExporter(); break;
         }
 
         if(exporter == null) throw new IllegalArgumentException("Unrecognized file format: " + ending);
@@ -5,16 +5,15 @@ import dk.sdu.compbio.faithmcs.network.Node;
 import org.jgrapht.Graph;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 
 public class SIFExporter implements Exporter {
-    public void write(Graph<Node,Edge> network, File file) throws FileNotFoundException {
-        PrintWriter pw = new PrintWriter(file);
-        for(Edge e : network.edgeSet()) {
+    public void write(Graph<Node,Edge> network, File file) throws IOException {
+        Edge[] edges = network.edgeSet().toArray(new Edge[0]);
+        ChunkedWriter.write(file, edges.length, ChunkedWriter.text((x, out) -> {
+            Edge e = edges[x];
             String label = e.getLabel().trim().length() > 0 ? e.getLabel() : "?";
-            pw.write(String.format("%s\t%s\t%s\n", e.getSource().getLabel(), label, e.getTarget().getLabel()));
-        }
-        pw.close();
+            out.append(e.getSource().getLabel()).append('\t').append(label).append('\t').append(e.getTarget().getLabel()).append('\n');
+        }));
     }
 }
@@ -1,6 +1,7 @@
 package dk.sdu.compbio.faithmcs.network.io;
 
 import dk.sdu.compbio.faithmcs.network.Edge;
+import dk.sdu.compbio.faithmcs.network.LabelDictionary;
 import dk.sdu.compbio.faithmcs.network.Node;
 import org.jgrapht.Graph;
 
@@ -12,7 +13,7 @@ import java.util.Scanner;
 
 class SIFImporter implements Importer {
     @Override
-    public void read(Graph<Node,Edge> network, File file) throws FileNotFoundException {
+    public void read(Graph<Node,Edge> network, File file, LabelDictionary dictionary) throws FileNotFoundException {
         Map<String, Node> nodeMap = new HashMap<>();
 
         boolean first_line = true;
@@ -29,21 +30,21 @@ class SIFImporter implements Importer {
 
             String[] parts = line.split(delimiter);
             if(parts.length == 0) continue;
-            Node source = getNode(parts[0], nodeMap, network);
+            Node source = getNode(parts[0], nodeMap, network, dictionary);
             if(parts.length >= 3) {
                 for(int i = 2; i < parts.length; ++i) {
-                    Node target = getNode(parts[i], nodeMap, network);
-                    network.addEdge(source, target, new Edge(source, target, parts[1]));
+                    Node target = getNode(parts[i], nodeMap, network, dictionary);
+                    network.addEdge(source, target, new Edge(source, target, dictionary.intern(parts[1])));
                 }
             }
         }
         scan.close();
     }
 
-    private static Node getNode(String label, Map<String, Node> nodeMap, Graph<Node,Edge> network) {
+    private static Node getNode(String label, Map<String, Node> nodeMap, Graph<Node,Edge> network, LabelDictionary dictionary) {
         Node node = nodeMap.get(label);
         if(node == null) {
-            node = new Node(label);
+            node = new Node(dictionary, label);
             network.addVertex(node);
             nodeMap.put(label, node);
         }